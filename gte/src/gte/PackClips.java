@@ -0,0 +1,58 @@
+package gte;
+
+import gte.utils.ClipStore;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Packs the individual clip files of each page of a connected component directory, such as
+ * <code>gte/data/sample_ccs</code>, into one clip store per page (see <code>ClipStore</code>)
+ * <p />
+ * Each <code>page-NNNN</code> directory is packed into a <code>page-NNNN.clips</code> file
+ * next to it. Once packed, the directories are no longer needed.
+ * <p />
+ * Usage: <code>java gte.PackClips &lt;connected component directory&gt;</code>
+ */
+public class PackClips
+{
+    public static void main(String[] args)
+    {
+        if (args.length != 1)
+        {
+            System.err.println("Usage: java gte.PackClips <connected component directory>");
+            System.exit(2);
+        }
+
+        File[] pages = new File(args[0]).listFiles(new FileFilter()
+        {
+            public boolean accept(File f)
+            {
+                return f.isDirectory() && f.getName().matches("page-\\d+");
+            }
+        });
+        if (pages == null)
+        {
+            System.err.println("\"" + args[0] + "\" is not a directory");
+            System.exit(1);
+        }
+        Arrays.sort(pages);
+
+        try
+        {
+            for (File page : pages)
+            {
+                File out = new File(page.getParentFile(), page.getName() + ".clips");
+                int count = ClipStore.pack(page, out);
+                System.out.printf("%s: %d clips, %d bytes%n", out.getName(), count, out.length());
+            }
+        }
+        catch (IOException ioe)
+        {
+            System.err.println(ioe.getMessage());
+            System.exit(1);
+        }
+    }
+}
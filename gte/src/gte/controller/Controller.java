@@ -1,5 +1,6 @@
 package gte.controller;
 
+import gte.model.Component;
 import gte.model.Model;
 import gte.utils.UnsupportedImageTypeException;
 import gte.view.View;
@@ -7,7 +8,10 @@ import gte.view.View;
 import java.awt.Rectangle;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * User: Alan P. Sexton
@@ -24,6 +28,12 @@ public class Controller
     Model model;
     View view;
 
+    /** the number of nearest neighbours <code>selectSimilar</code> looks for */
+    private static final int SIMILAR_COUNT = 20;
+
+    /** whether the last attempt to suggest a label failed, and the user has been told */
+    private boolean suggestionFailed = false;
+
 
 
     /**
@@ -73,7 +83,255 @@ public class Controller
     public void addRect(Rectangle rect)
     {
         model.addRect(rect);
-        view.repaint();
+        view.repaintRegion(rect);
+    }
+
+    /**
+     * Remove all the rectangles from the model and update the view accordingly
+     */
+    public void clearRects()
+    {
+        model.clearRects();
+        view.repaintCanvas();
+    }
+
+    /**
+     * Load the connected components of a page into the model and show them
+     * @param csvFile the CSV file describing the components, or an archive holding it
+     * @param page the page number, starting from 1
+     * @throws IOException
+     */
+    public void loadComponents(File csvFile, int page)
+            throws IOException
+    {
+        model.loadComponents(csvFile, page);
+        view.repaintCanvas();
+    }
+
+    /**
+     * Add a component to the selection
+     * @param c the component, or <code>null</code> for none
+     */
+    public void selectComponent(Component c)
+    {
+        List<Component> before = snapshotSelection();
+        model.selectComponent(c);
+        repaintSelectionChange(before);
+        suggestLabel();
+    }
+
+    /**
+     * Select the components that intersect a rectangle dragged out by the user, and add the rectangle to the model
+     * @param rect the rectangle
+     * @param extend whether to add the components to the selection rather than replace the selection with them
+     * @param toggle whether to toggle the selection of each component instead
+     */
+    public void selectArea(Rectangle rect, boolean extend, boolean toggle)
+    {
+        List<Component> before = snapshotSelection();
+        if (toggle)
+            model.toggleComponents(model.allSelected(rect));
+        else
+        {
+            if (!extend)
+                model.deselectAllComponents();
+            model.selectComponents(model.allSelected(rect));
+        }
+        repaintSelectionChange(before);
+        suggestLabel();
+        addRect(rect);
+    }
+
+    /**
+     * Remove the components that intersect a rectangle dragged out by the user from the selection, and add the
+     * rectangle to the model
+     * @param rect the rectangle
+     */
+    public void deselectArea(Rectangle rect)
+    {
+        List<Component> before = snapshotSelection();
+        model.deselectComponents(model.allSelected(rect));
+        repaintSelectionChange(before);
+        addRect(rect);
+    }
+
+    /**
+     * Select exactly the components of the page that are not selected
+     */
+    public void invertSelection()
+    {
+        model.invertSelection();
+        view.repaintCanvas();
+    }
+
+    /**
+     * Offer the label the model suggests for the selection, if the components have been labelled enough to
+     * suggest one. Otherwise, such as when the whole selection is already labelled, offer the label the selected
+     * components share, or nothing, so that the label offered for an earlier selection is never applied to this one.
+     */
+    private void suggestLabel()
+    {
+        List<Component> selected = model.getSelected();
+        if (selected.isEmpty())
+            return;
+        try {
+            String label = model.suggestLabel(selected);
+            if (label != null)
+                view.suggestLabel(label, model.getSuggestionConfidence(selected));
+            else
+                view.suggestLabel(model.getLabel(selected), Float.NaN);
+            suggestionFailed = false;
+        } catch (IOException e) {
+            view.suggestLabel(null, Float.NaN);
+            // tell the user once, rather than on every change of selection until it works again
+            if (!suggestionFailed)
+                view.showWarning("Could not read the labels to suggest one: " + e.getMessage());
+            suggestionFailed = true;
+        }
+        reportSkippedLabels();
+    }
+
+    private List<Component> snapshotSelection()
+    {
+        return model.getSelected();
+    }
+
+    /**
+     * Repaint only the components whose selection has changed since a snapshot of the selection was taken
+     */
+    private void repaintSelectionChange(List<Component> before)
+    {
+        Set<Component> unchanged = new HashSet<Component>(before);
+        Rectangle dirty = null;
+        for (Component c : model.getSelected())
+            if (!unchanged.remove(c))
+                dirty = union(dirty, c.getImageCoords());
+        for (Component c : unchanged)
+            if (!model.isSelected(c))
+                dirty = union(dirty, c.getImageCoords());
+        view.repaintRegion(dirty);
+    }
+
+    private static Rectangle union(Rectangle a, Rectangle b)
+    {
+        return a == null ? new Rectangle(b) : a.union(b);
+    }
+
+    /**
+     * Cluster the components of the loaded CSV file, if they have not been clustered yet. This takes a while for a
+     * whole volume, so it is meant to be called off the Event Dispatch Thread: it does not touch the view, and the
+     * model only makes the clustering visible once it is complete.
+     */
+    public void clusterComponents()
+    {
+        if (!model.isClustered())
+            model.clusterComponents();
+    }
+
+    /**
+     * Extend the selection to every component on the page that is in the same cluster as the first selected
+     * component. The components should have been clustered first (see <code>clusterComponents</code>).
+     */
+    public void selectCluster()
+    {
+        if (model.getFirstSelected() == null)
+            return;
+        List<Component> before = snapshotSelection();
+        model.selectCluster(model.getFirstSelected());
+        repaintSelectionChange(before);
+        suggestLabel();
+    }
+
+    /**
+     * Extend the selection to the components on the page that look most like the first selected component
+     */
+    public void selectSimilar()
+    {
+        if (model.getFirstSelected() == null)
+            return;
+        List<Component> before = snapshotSelection();
+        for (Component c : model.findSimilar(model.getFirstSelected(), SIMILAR_COUNT))
+            if (!model.isSelected(c))
+                model.selectComponent(c);
+        repaintSelectionChange(before);
+        suggestLabel();
+    }
+
+    /**
+     * Extend the selection to the components of the other pages of the CSV file in the same cluster as the first
+     * selected component (see <code>Model.getClusterAcrossPages</code>). The components should have been clustered
+     * first (see <code>clusterComponents</code>).
+     * @return the selected components followed by those of other pages, or none if nothing is selected
+     */
+    public List<Component> getClusterAcrossPages()
+    {
+        Component first = model.getFirstSelected();
+        if (first == null)
+            return new ArrayList<Component>();
+        return model.getClusterAcrossPages(first);
+    }
+
+    /**
+     * Record the same ground truth label for a set of components, which may be on any page
+     * @param a the components
+     * @param label the label
+     * @return the number of components labelled, which leaves out any not read from a CSV file
+     * @throws IOException if the labels cannot be written
+     */
+    public int labelComponents(List<Component> a, String label)
+            throws IOException
+    {
+        try {
+            return model.labelComponents(a, label);
+        } finally {
+            reportSkippedLabels();
+        }
+    }
+
+    /**
+     * Record the ground truth label of a component
+     * @param c the component, or <code>null</code> for none
+     * @param label the label
+     * @return <code>false</code> if the component cannot be labelled, because it was not read from a CSV file
+     * @throws IOException if the label cannot be written
+     */
+    public boolean labelComponent(Component c, String label)
+            throws IOException
+    {
+        try {
+            return model.labelComponent(c, label);
+        } finally {
+            reportSkippedLabels();
+        }
+    }
+
+    /**
+     * Give every selected component the same ground truth label
+     * @param label the label
+     * @return the number of components labelled
+     * @throws IOException if the labels cannot be written
+     */
+    public int labelSelection(String label)
+            throws IOException
+    {
+        try {
+            return model.labelSelection(label);
+        } finally {
+            reportSkippedLabels();
+        }
+    }
+
+    /**
+     * Warn the user if lines of the label journal could not be read when the model opened it, as the labels on
+     * them are missing
+     */
+    private void reportSkippedLabels()
+    {
+        int skipped = model.takeSkippedLabelLines();
+        if (skipped > 0)
+            view.showWarning(skipped + (skipped == 1 ? " line" : " lines") + " of the label journal "
+                    + model.getLabelJournalFile() + " could not be read, so the labels on them are missing."
+                    + " The lines are still in the file.");
     }
 
     /**
@@ -82,6 +340,14 @@ public class Controller
      */
     public void exit(int exitStatus)
     {
+        try
+        {
+            model.closeLabels();
+        }
+        catch (IOException e)
+        {
+            System.err.println("Could not save the labels: " + e);
+        }
         System.exit(exitStatus);
     }
 
@@ -1,9 +1,11 @@
 package gte.model;
 
+import gte.utils.ClipSource;
+import gte.utils.ClipStore;
+import gte.utils.ComponentCSV;
 import gte.utils.ImageFile;
 import gte.utils.UnsupportedImageTypeException;
 
-import javax.imageio.ImageIO;
 import java.awt.Dimension;
 import java.awt.Rectangle;
 import java.awt.Point;
@@ -29,14 +31,17 @@ public class Component {
     private int page_width;
     private int page_height;
     private String cc_image;
-    private String image_basePath = "gte/data/sample_ccs/page-";
     private Rectangle imageCoords;
 
-    private String[] everythingElse;
+    /** where the clip is read from when it is first needed */
+    private ClipSource clips;
+
+    private int row = -1;
 
     private BufferedImage heldImage;
-    private BufferedImage normalImage;
-    private boolean isSelected;
+
+    /** the position of this component in its <code>Model</code>, or -1 if it has not been added to one */
+    private int index = -1;
 
     private String associatedType;
     private String associatedWord;
@@ -45,8 +50,6 @@ public class Component {
     public Component(int x, int y, int w, int h, BufferedImage b) {
         imageCoords = new Rectangle(x, y, w, h);
         heldImage = b;
-        normalImage = deepCopy(b);
-        isSelected = false;
         associatedWord = "";
     }
 
@@ -88,57 +91,27 @@ public class Component {
         return img;
     }
 
-    public void select() {
-        System.out.println(isSelected);
-        if (!isSelected) {
-            normalImage = deepCopy(heldImage);
-            setSelected(true);
-
-            heldImage = tintImage(heldImage, 0, 0, 100, 100);
-        }
-    }
-
-    public void deselect() {
-        if (isSelected) {
-            setSelected(false);
-            heldImage = deepCopy(normalImage);
-        }
-    }
-
-    public boolean getSelected() {
-        return this.isSelected;
-    }
-
-    public void toggleSelected() {
-
-        if (!isSelected) {
-            //normalImage = heldImage;
-            //heldImage = tintImage(heldImage, 0, 0, 100, 100);
-            normalImage = deepCopy(heldImage);
-            setSelected(true);
-
-            heldImage = tintImage(heldImage, 0, 0, 100, 100);
-
-        } else {
-            //heldImage = tintImage(heldImage, 255, 255, 155, 100);
-            setSelected(false);
-            heldImage = deepCopy(normalImage);
-
+    /**
+     * @return the image of this component, reading its clip the first time
+     */
+    public BufferedImage getHeldImage() {
+        if (heldImage == null && clips != null) {
+            heldImage = readClip();
+            clips = null;
         }
+        return heldImage;
     }
 
-    public void setSelected(boolean b) {
-        if (b) {
-            isSelected = true;
-        } else {
-            isSelected = false;
+    private BufferedImage readClip() {
+        try {
+            return clips.getClip(page, cc_image);
+        } catch (Exception ex) {
+            System.out.println("error reading clip "+cc_image);
+            System.out.println(ex);
+            return null;
         }
     }
 
-    public BufferedImage getHeldImage() {
-        return heldImage;
-    }
-
     public String toString() {
         return this.getImageCoords().toString();
     }
@@ -154,33 +127,49 @@ public class Component {
     public int getPage() {
         return page;
     }
-    public Component(String s) {
-        String[] current = s.split(",");
-        src_image = current[0].replace("\"","");
-        page = Integer.parseInt(current[1]);
-        page_width  = Integer.parseInt(current[2]);
-        page_height  = Integer.parseInt(current[3]);
-        cc_image  = current[4].replace("\"","");
-        imageCoords = new Rectangle(Integer.parseInt(current[5]),
-                Integer.parseInt(current[6]),
-                Integer.parseInt(current[7]),
-                Integer.parseInt(current[8]));
-        everythingElse = new String[current.length-9];
-        System.arraycopy(current, 9, everythingElse, 0, current.length-9);
-        File img = new File(image_basePath+String.format("%04d", page)+"/"+cc_image);
-
-        try {
-            heldImage = new BufferedImage(page_width,page_height, BufferedImage.TYPE_INT_ARGB);
-            heldImage = ImageIO.read(img);
-
-        } catch (Exception ex) {
-            System.out.println("error reading file "+image_basePath+String.format("%04d", page)+"/"+cc_image);
-            System.out.println(ex);
-        }
-
-        isSelected = false;
-
 
+    /**
+     * @return the connected component number of this component on its page, as given by its
+     *         clip file name, or -1 if it was not read from a CSV file
+     */
+    public int getComponentNumber() {
+        return cc_image == null ? -1 : ClipStore.componentNumber(cc_image);
+    }
+    /**
+     * Creates the component described by a row of a connected component CSV file. Its
+     * image clip is only read from the clip source when it is first needed.
+     *
+     * @param table the parsed CSV file
+     * @param row   the row of the component in <code>table</code>
+     * @param clips where the CSV file was read from
+     */
+    public Component(ComponentCSV table, int row, ClipSource clips) {
+        this.row = row;
+        src_image = table.getString(row, "src_image");
+        page = table.getIntColumn("page")[row];
+        page_width = table.getIntColumn("page_width")[row];
+        page_height = table.getIntColumn("page_height")[row];
+        cc_image = table.getString(row, "cc_image");
+        imageCoords = new Rectangle(table.getIntColumn("x")[row],
+                table.getIntColumn("y")[row],
+                table.getIntColumn("w")[row],
+                table.getIntColumn("h")[row]);
+        this.clips = clips;
+    }
+
+    int getIndex() {
+        return index;
+    }
+
+    void setIndex(int index) {
+        this.index = index;
+    }
+
+    /**
+     * @return the row of this component in its CSV file, or -1 if it was not read from one
+     */
+    int getRow() {
+        return row;
     }
 
 }
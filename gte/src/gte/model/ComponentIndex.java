@@ -0,0 +1,309 @@
+package gte.model;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A packed R-tree over the bounding boxes of the components of a page
+ * <p/>
+ * The tree is bulk loaded with the sort-tile-recursive method: at each level the entries
+ * are sorted into vertical slices by the x of their centres, each slice is sorted by y,
+ * and runs of <code>NODE_SIZE</code> consecutive entries become the nodes of the level
+ * above. This gives nodes with little overlap without any insertion logic. The tree is
+ * read-only, so the <code>Model</code> builds a new one when its components change.
+ * <p/>
+ * Components are identified by their index in the list the tree was built from.
+ */
+class ComponentIndex
+{
+    static final int ABOVE = 0;
+    static final int BELOW = 1;
+    static final int LEFT = 2;
+    static final int RIGHT = 3;
+
+    private static final int NODE_SIZE = 16;
+
+    private final int size;
+
+    /** the component of each leaf entry */
+    private int[] ids;
+
+    /**
+     * the boxes of the entries of each level, inclusive of their maximum coordinates:
+     * level 0 holds the components, the last level the root
+     */
+    private final int[][] minX, minY, maxX, maxY;
+
+    /** the entries of level <code>l - 1</code> under node <code>i</code> of level <code>l</code> are first[l][i]..end[l][i]-1 */
+    private final int[][] first, end;
+
+    ComponentIndex(List<Component> comps)
+    {
+        size = comps.size();
+        int levels = 1;
+        for (int n = size; n > 1; n = (n + NODE_SIZE - 1) / NODE_SIZE)
+            levels++;
+        minX = new int[levels][];
+        minY = new int[levels][];
+        maxX = new int[levels][];
+        maxY = new int[levels][];
+        first = new int[levels][];
+        end = new int[levels][];
+
+        int[] order = new int[size];
+        int[][] boxes = new int[4][size];
+        for (int i = 0; i < size; i++)
+        {
+            Rectangle r = comps.get(i).getImageCoords();
+            order[i] = i;
+            boxes[0][i] = r.x;
+            boxes[1][i] = r.y;
+            boxes[2][i] = r.x + r.width - 1;
+            boxes[3][i] = r.y + r.height - 1;
+        }
+        int[] childFirst = null;
+        int[] childEnd = null;
+
+        for (int level = 0; level < levels; level++)
+        {
+            int n = order.length;
+            if (level < levels - 1)
+                sortTileRecursive(order, boxes);
+            minX[level] = permute(boxes[0], order);
+            minY[level] = permute(boxes[1], order);
+            maxX[level] = permute(boxes[2], order);
+            maxY[level] = permute(boxes[3], order);
+            if (level > 0)
+            {
+                first[level] = permute(childFirst, order);
+                end[level] = permute(childEnd, order);
+            }
+            if (level == 0)
+                ids = order;
+            if (level == levels - 1)
+                break;
+
+            // group the sorted entries into the nodes of the next level
+            int parents = (n + NODE_SIZE - 1) / NODE_SIZE;
+            boxes = new int[4][parents];
+            childFirst = new int[parents];
+            childEnd = new int[parents];
+            for (int p = 0; p < parents; p++)
+            {
+                int from = p * NODE_SIZE;
+                int to = Math.min(n, from + NODE_SIZE);
+                childFirst[p] = from;
+                childEnd[p] = to;
+                boxes[0][p] = Integer.MAX_VALUE;
+                boxes[1][p] = Integer.MAX_VALUE;
+                boxes[2][p] = Integer.MIN_VALUE;
+                boxes[3][p] = Integer.MIN_VALUE;
+                for (int i = from; i < to; i++)
+                {
+                    boxes[0][p] = Math.min(boxes[0][p], minX[level][i]);
+                    boxes[1][p] = Math.min(boxes[1][p], minY[level][i]);
+                    boxes[2][p] = Math.max(boxes[2][p], maxX[level][i]);
+                    boxes[3][p] = Math.max(boxes[3][p], maxY[level][i]);
+                }
+            }
+            order = new int[parents];
+            for (int p = 0; p < parents; p++)
+                order[p] = p;
+        }
+    }
+
+    private static int[] permute(int[] values, int[] order)
+    {
+        int[] out = new int[order.length];
+        for (int i = 0; i < order.length; i++)
+            out[i] = values[order[i]];
+        return out;
+    }
+
+    /**
+     * Sorts entries into the sort-tile-recursive order: slices by x centre, then by y
+     * centre within each slice
+     */
+    private static void sortTileRecursive(int[] order, final int[][] boxes)
+    {
+        int n = order.length;
+        int nodes = (n + NODE_SIZE - 1) / NODE_SIZE;
+        int slices = (int) Math.ceil(Math.sqrt(nodes));
+        int sliceSize = slices == 0 ? n : (int) Math.ceil((double) nodes / slices) * NODE_SIZE;
+
+        long[] keys = new long[n];
+        for (int i = 0; i < n; i++)
+            keys[i] = (long) (boxes[0][order[i]] + boxes[2][order[i]]) << 32 | order[i];
+        Arrays.sort(keys);
+        for (int i = 0; i < n; i++)
+            order[i] = (int) keys[i];
+
+        for (int from = 0; from < n; from += sliceSize)
+        {
+            int to = Math.min(n, from + sliceSize);
+            for (int i = from; i < to; i++)
+                keys[i] = (long) (boxes[1][order[i]] + boxes[3][order[i]]) << 32 | order[i];
+            Arrays.sort(keys, from, to);
+            for (int i = from; i < to; i++)
+                order[i] = (int) keys[i];
+        }
+    }
+
+    int size()
+    {
+        return size;
+    }
+
+    /**
+     * Finds the components whose bounding boxes intersect a rectangle, in the sense of
+     * <code>Rectangle.intersects</code>
+     *
+     * @return the indices of the components, in increasing order
+     */
+    int[] intersecting(Rectangle r)
+    {
+        if (size == 0 || r.width <= 0 || r.height <= 0)
+            return new int[0];
+        int x0 = r.x;
+        int y0 = r.y;
+        int x1 = r.x + r.width - 1;
+        int y1 = r.y + r.height - 1;
+
+        int[] out = new int[64];
+        int count = 0;
+        int top = minX.length - 1;
+        // stack of (level, entry) pairs still to visit
+        int[] stack = new int[64];
+        int sp = 0;
+        stack[sp++] = top;
+        stack[sp++] = 0;
+        while (sp > 0)
+        {
+            int i = stack[--sp];
+            int level = stack[--sp];
+            if (minX[level][i] > x1 || maxX[level][i] < x0 || minY[level][i] > y1 || maxY[level][i] < y0)
+                continue;
+            if (level == 0)
+            {
+                if (maxX[0][i] < minX[0][i] || maxY[0][i] < minY[0][i])
+                    continue; // empty box
+                if (count == out.length)
+                    out = Arrays.copyOf(out, count * 2);
+                out[count++] = ids[i];
+                continue;
+            }
+            for (int c = first[level][i]; c < end[level][i]; c++)
+            {
+                if (sp + 2 > stack.length)
+                    stack = Arrays.copyOf(stack, stack.length * 2);
+                stack[sp++] = level - 1;
+                stack[sp++] = c;
+            }
+        }
+        int[] found = Arrays.copyOf(out, count);
+        Arrays.sort(found);
+        return found;
+    }
+
+    /**
+     * Finds the component the selection moves to with an arrow key: of the components
+     * level with a rectangle, on the given side of its near edge, the one that is closest
+     * to the rectangle, i.e. whose near edge is furthest in the other direction. Level with
+     * means overlapping it horizontally, for <code>ABOVE</code> and <code>BELOW</code>, or
+     * vertically, edges included. A component within the rectangle comes first; ties go
+     * to the lowest index.
+     * <p/>
+     * The search is depth first, skipping any node that cannot hold a component level
+     * with the rectangle or closer than the best found so far.
+     *
+     * @param direction <code>ABOVE</code>, <code>BELOW</code>, <code>LEFT</code> or
+     *                  <code>RIGHT</code>
+     * @param from      the rectangle moved from, usually the bounds of the selection
+     * @param skip      components that cannot be moved to, usually the selection itself
+     * @return the index of the component, or -1 if there is none
+     */
+    int nearest(int direction, Rectangle from, SelectionSet skip)
+    {
+        if (size == 0)
+            return -1;
+        // edges as Rectangle.getMaxX/getMaxY give them, i.e. exclusive
+        int fx0 = from.x;
+        int fy0 = from.y;
+        int fx1 = from.x + from.width;
+        int fy1 = from.y + from.height;
+        boolean vertical = direction == ABOVE || direction == BELOW;
+
+        int best = -1;
+        int bestScore = Integer.MIN_VALUE;
+        boolean bestInside = false;
+        int top = minX.length - 1;
+        int[] stack = new int[64];
+        int sp = 0;
+        stack[sp++] = top;
+        stack[sp++] = 0;
+        while (sp > 0)
+        {
+            int i = stack[--sp];
+            int level = stack[--sp];
+            int x0 = minX[level][i];
+            int y0 = minY[level][i];
+            int x1 = maxX[level][i] + 1;
+            int y1 = maxY[level][i] + 1;
+            if (vertical ? x0 > fx1 || x1 < fx0 : y0 > fy1 || y1 < fy0)
+                continue;
+
+            // the score of a component, or an upper bound on those of a node's components,
+            // higher being closer
+            int score;
+            switch (direction)
+            {
+                case ABOVE:
+                    if (y0 > fy0)
+                        continue;
+                    score = level == 0 ? y0 : Math.min(fy0, y1);
+                    break;
+                case BELOW:
+                    if (y1 < fy1)
+                        continue;
+                    score = level == 0 ? -y1 : -Math.max(fy1, y0);
+                    break;
+                case LEFT:
+                    if (x0 > fx0)
+                        continue;
+                    score = level == 0 ? x0 : Math.min(fx0, x1);
+                    break;
+                default:
+                    if (x1 < fx1)
+                        continue;
+                    score = level == 0 ? -x1 : -Math.max(fx1, x0);
+                    break;
+            }
+            if (score < bestScore)
+                continue;
+
+            if (level == 0)
+            {
+                int id = ids[i];
+                if (skip != null && skip.contains(id))
+                    continue;
+                boolean inside = from.contains(x0, y0, x1 - x0, y1 - y0);
+                if (score > bestScore || inside && !bestInside || inside == bestInside && id < best)
+                {
+                    best = id;
+                    bestScore = score;
+                    bestInside = inside;
+                }
+                continue;
+            }
+            for (int c = first[level][i]; c < end[level][i]; c++)
+            {
+                if (sp + 2 > stack.length)
+                    stack = Arrays.copyOf(stack, stack.length * 2);
+                stack[sp++] = level - 1;
+                stack[sp++] = c;
+            }
+        }
+        return best;
+    }
+}
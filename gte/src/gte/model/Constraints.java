@@ -0,0 +1,97 @@
+package gte.model;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Pairwise constraints on the clustering of components, given by the user: rows that
+ * must be in the same cluster (must-link) and rows that must not (cannot-link)
+ * <p/>
+ * Links are symmetric. A later link between the same two rows replaces an earlier one
+ * of the other kind, so the user can change their mind.
+ */
+class Constraints
+{
+    private static final int[] NONE = new int[0];
+
+    private final HashMap<Integer, List<Integer>> mustLink = new HashMap<Integer, List<Integer>>();
+    private final HashMap<Integer, List<Integer>> cannotLink = new HashMap<Integer, List<Integer>>();
+
+    void addMustLink(int a, int b)
+    {
+        if (a == b)
+            return;
+        unlink(cannotLink, a, b);
+        link(mustLink, a, b);
+    }
+
+    void addCannotLink(int a, int b)
+    {
+        if (a == b)
+            return;
+        unlink(mustLink, a, b);
+        link(cannotLink, a, b);
+    }
+
+    private static void link(HashMap<Integer, List<Integer>> links, int a, int b)
+    {
+        add(links, a, b);
+        add(links, b, a);
+    }
+
+    private static void add(HashMap<Integer, List<Integer>> links, int from, int to)
+    {
+        List<Integer> list = links.get(from);
+        if (list == null)
+        {
+            list = new ArrayList<Integer>();
+            links.put(from, list);
+        }
+        if (!list.contains(to))
+            list.add(to);
+    }
+
+    private static void unlink(HashMap<Integer, List<Integer>> links, int a, int b)
+    {
+        List<Integer> list = links.get(a);
+        if (list != null)
+            list.remove(Integer.valueOf(b));
+        list = links.get(b);
+        if (list != null)
+            list.remove(Integer.valueOf(a));
+    }
+
+    int[] mustLinked(int row)
+    {
+        return toArray(mustLink.get(row));
+    }
+
+    int[] cannotLinked(int row)
+    {
+        return toArray(cannotLink.get(row));
+    }
+
+    boolean isCannotLinked(int a, int b)
+    {
+        List<Integer> list = cannotLink.get(a);
+        return list != null && list.contains(b);
+    }
+
+    boolean isConstrained(int row)
+    {
+        List<Integer> must = mustLink.get(row);
+        List<Integer> cannot = cannotLink.get(row);
+        return must != null && !must.isEmpty() || cannot != null && !cannot.isEmpty();
+    }
+
+    private static int[] toArray(List<Integer> list)
+    {
+        if (list == null || list.isEmpty())
+            return NONE;
+        int[] out = new int[list.size()];
+        for (int i = 0; i < out.length; i++)
+            out[i] = list.get(i);
+        return out;
+    }
+}
@@ -0,0 +1,124 @@
+package gte.model;
+
+import gte.utils.ComponentCSV;
+
+import java.util.Random;
+
+/**
+ * The feature vectors of the connected components of a CSV file, normalised and stored
+ * in one contiguous row-major <code>float</code> array
+ * <p/>
+ * Each feature is standardised to zero mean and unit variance over all the rows, so
+ * that features with large ranges (such as the area <code>m00</code>) do not swamp the
+ * small moment invariants in Euclidean distances. Features that are constant are only
+ * centred.
+ */
+class FeatureMatrix
+{
+    private final int rows;
+    private final int dimensions;
+    private final float[] data;
+
+    /**
+     * Copies and normalises the features of every row of the table
+     */
+    FeatureMatrix(ComponentCSV table)
+    {
+        rows = table.getNumRows();
+        dimensions = table.getNumFeatures();
+        data = table.getFeatures().clone();
+        float[] mean = new float[dimensions];
+        float[] scale = new float[dimensions];
+
+        double[] sum = new double[dimensions];
+        double[] sumOfSquares = new double[dimensions];
+        for (int r = 0; r < rows; r++)
+        {
+            int base = r * dimensions;
+            for (int f = 0; f < dimensions; f++)
+            {
+                double v = data[base + f];
+                sum[f] += v;
+                sumOfSquares[f] += v * v;
+            }
+        }
+
+        for (int f = 0; f < dimensions; f++)
+        {
+            double m = rows == 0 ? 0 : sum[f] / rows;
+            double variance = rows == 0 ? 0 : sumOfSquares[f] / rows - m * m;
+            mean[f] = (float) m;
+            scale[f] = variance > 1e-12 ? (float) (1 / Math.sqrt(variance)) : 1;
+        }
+
+        for (int r = 0; r < rows; r++)
+        {
+            int base = r * dimensions;
+            for (int f = 0; f < dimensions; f++)
+                data[base + f] = (data[base + f] - mean[f]) * scale[f];
+        }
+    }
+
+    private FeatureMatrix(int rows, int dimensions, float[] data)
+    {
+        this.rows = rows;
+        this.dimensions = dimensions;
+        this.data = data;
+    }
+
+    /**
+     * @return a matrix of <code>size</code> distinct rows of this one, chosen at random
+     */
+    FeatureMatrix sample(int size, Random random)
+    {
+        // Partial Fisher-Yates shuffle of the row numbers
+        int[] order = new int[rows];
+        for (int r = 0; r < rows; r++)
+            order[r] = r;
+        float[] sampled = new float[size * dimensions];
+        for (int i = 0; i < size; i++)
+        {
+            int j = i + random.nextInt(rows - i);
+            int r = order[j];
+            order[j] = order[i];
+            System.arraycopy(data, r * dimensions, sampled, i * dimensions, dimensions);
+        }
+        return new FeatureMatrix(size, dimensions, sampled);
+    }
+
+    int getNumRows()
+    {
+        return rows;
+    }
+
+    int getDimensions()
+    {
+        return dimensions;
+    }
+
+    /**
+     * @return the normalised features, <code>getDimensions()</code> values per row. The
+     *         array is not copied and must not be modified.
+     */
+    float[] getData()
+    {
+        return data;
+    }
+
+    /**
+     * @return the squared Euclidean distance between a row and a point given as
+     *         <code>getDimensions()</code> values starting at <code>offset</code> in
+     *         <code>point</code>
+     */
+    float distanceSquared(int row, float[] point, int offset)
+    {
+        int base = row * dimensions;
+        float d = 0;
+        for (int f = 0; f < dimensions; f++)
+        {
+            float diff = data[base + f] - point[offset + f];
+            d += diff * diff;
+        }
+        return d;
+    }
+}
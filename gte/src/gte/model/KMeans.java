@@ -0,0 +1,606 @@
+package gte.model;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * k-means clustering of the rows of a <code>FeatureMatrix</code>
+ * <p/>
+ * The initial centres are chosen with k-means++ seeding and then refined with Lloyd
+ * iterations until fewer than 1 in <code>CONVERGED</code> rows change cluster. The distance computations, which
+ * are the bulk of the work, are split over the common fork/join pool; the centre
+ * updates are a single cheap pass over the rows.
+ * <p/>
+ * Large inputs are first clustered on a random sample of their rows, and the centres
+ * found are used as the starting point for the full data, which then needs only a few
+ * iterations.
+ * <p/>
+ * Each row keeps an upper bound on the distance to its own centre and a lower bound on
+ * the distance to any other centre (Hamerly's algorithm). While the bounds show that
+ * no other centre can be nearer, which after the first few iterations is the case for
+ * most rows, the row is skipped without computing any distance.
+ * <p/>
+ * Once clustered, <code>refine</code> applies constraints given by the user to a
+ * single cluster and its neighbours, splitting the cluster if it holds rows that must
+ * not be together, without touching the rest of the data.
+ */
+class KMeans
+{
+    private static final int MAX_ITERATIONS = 50;
+    private static final int CONVERGED = 200;
+
+    /** how many of the nearest other clusters take part in refining a cluster */
+    private static final int REFINE_NEIGHBOURS = 3;
+    private static final int MAX_REFINE_ITERATIONS = 20;
+
+    /** inputs with more rows than this are first clustered on a sample of this size */
+    private static final int SAMPLE_ROWS = 32768;
+
+    /** rows per task in the parallel passes */
+    private static final int GRAIN = 1024;
+
+    private final FeatureMatrix features;
+    private int k;
+    private final int dimensions;
+
+    /** row-major, <code>dimensions</code> values per cluster */
+    private float[] centroids;
+    private final int[] assignment;
+    private int[] sizes;
+
+    /** upper bound on the distance of each row to its centre */
+    private final float[] upper;
+
+    /** lower bound on the distance of each row to every centre but its own */
+    private final float[] lower;
+
+    /** half the distance from each centre to the nearest other centre */
+    private float[] halfGap;
+
+    /** the rows of each cluster, listed on the first refinement and kept up to date by it */
+    private int[][] members;
+
+    KMeans(FeatureMatrix features, int k)
+    {
+        this.features = features;
+        this.k = Math.max(1, Math.min(k, features.getNumRows()));
+        dimensions = features.getDimensions();
+        centroids = new float[this.k * dimensions];
+        assignment = new int[features.getNumRows()];
+        sizes = new int[this.k];
+        upper = new float[features.getNumRows()];
+        lower = new float[features.getNumRows()];
+        halfGap = new float[this.k];
+    }
+
+    /**
+     * Clusters the rows. The same seed always gives the same clustering.
+     */
+    void run(long seed)
+    {
+        int n = features.getNumRows();
+        members = null;
+        if (n == 0)
+            return;
+
+        Random random = new Random(seed);
+        if (n > SAMPLE_ROWS && k < SAMPLE_ROWS)
+        {
+            KMeans sample = new KMeans(features.sample(SAMPLE_ROWS, random), k);
+            sample.run(random.nextLong());
+            System.arraycopy(sample.centroids, 0, centroids, 0, centroids.length);
+        }
+        else
+        {
+            seed(random);
+        }
+
+        // The first assignment pass must look at every row and find it changed
+        Arrays.fill(assignment, -1);
+        Arrays.fill(upper, Float.MAX_VALUE);
+        Arrays.fill(lower, 0);
+
+        int iterations = 0;
+        int changed;
+        do
+        {
+            updateGaps();
+            changed = ForkJoinPool.commonPool().invoke(new Assign(0, n));
+            updateCentroids();
+            iterations++;
+        } while (changed > n / CONVERGED && iterations < MAX_ITERATIONS);
+    }
+
+    /**
+     * k-means++: each new centre is a row picked with probability proportional to its
+     * squared distance to the nearest centre picked so far
+     */
+    private void seed(Random random)
+    {
+        int n = features.getNumRows();
+        float[] data = features.getData();
+
+        // upper holds the squared distance to the nearest centre picked so far
+        Arrays.fill(upper, Float.MAX_VALUE);
+        int first = random.nextInt(n);
+        System.arraycopy(data, first * dimensions, centroids, 0, dimensions);
+        for (int c = 1; c < k; c++)
+        {
+            ForkJoinPool.commonPool().invoke(new NearestSoFar(c - 1, 0, n));
+
+            double total = 0;
+            for (int r = 0; r < n; r++)
+                total += upper[r];
+
+            int pick = n - 1;
+            double target = random.nextDouble() * total;
+            for (int r = 0; r < n; r++)
+            {
+                target -= upper[r];
+                if (target < 0)
+                {
+                    pick = r;
+                    break;
+                }
+            }
+            System.arraycopy(data, pick * dimensions, centroids, c * dimensions, dimensions);
+        }
+    }
+
+    private void updateGaps()
+    {
+        for (int c = 0; c < k; c++)
+        {
+            float nearest = Float.MAX_VALUE;
+            for (int other = 0; other < k; other++)
+                if (other != c)
+                    nearest = Math.min(nearest, centreDistanceSquared(c, other));
+            halfGap[c] = (float) Math.sqrt(nearest) / 2;
+        }
+    }
+
+    private float centreDistanceSquared(int a, int b)
+    {
+        float d = 0;
+        for (int f = 0; f < dimensions; f++)
+        {
+            float diff = centroids[a * dimensions + f] - centroids[b * dimensions + f];
+            d += diff * diff;
+        }
+        return d;
+    }
+
+    private void updateCentroids()
+    {
+        int n = features.getNumRows();
+        float[] data = features.getData();
+        double[] sums = new double[k * dimensions];
+        Arrays.fill(sizes, 0);
+
+        for (int r = 0; r < n; r++)
+        {
+            int c = assignment[r];
+            sizes[c]++;
+            int base = r * dimensions;
+            int centre = c * dimensions;
+            for (int f = 0; f < dimensions; f++)
+                sums[centre + f] += data[base + f];
+        }
+
+        float[] moved = new float[k];
+        float maxMoved = 0;
+        float[] previous = new float[dimensions];
+        BitSet reseeded = new BitSet();
+        for (int c = 0; c < k; c++)
+        {
+            int centre = c * dimensions;
+            System.arraycopy(centroids, centre, previous, 0, dimensions);
+            if (sizes[c] == 0)
+            {
+                // An empty cluster takes over the row that is (as far as the bounds
+                // tell) worst served by its own centre. The jump of the centre is
+                // accounted for in the bounds like any other move.
+                int worst = -1;
+                for (int r = 0; r < n; r++)
+                    if (!reseeded.get(r) && (worst < 0 || upper[r] > upper[worst]))
+                        worst = r;
+                reseeded.set(worst);
+                System.arraycopy(data, worst * dimensions, centroids, centre, dimensions);
+            }
+            else
+            {
+                for (int f = 0; f < dimensions; f++)
+                    centroids[centre + f] = (float) (sums[centre + f] / sizes[c]);
+            }
+
+            float d = 0;
+            for (int f = 0; f < dimensions; f++)
+            {
+                float diff = centroids[centre + f] - previous[f];
+                d += diff * diff;
+            }
+            moved[c] = (float) Math.sqrt(d);
+            maxMoved = Math.max(maxMoved, moved[c]);
+        }
+
+        // Moving the centres loosens the bounds by at most the distances they moved
+        for (int r = 0; r < n; r++)
+        {
+            upper[r] += moved[assignment[r]];
+            lower[r] -= maxMoved;
+        }
+    }
+
+    /**
+     * Re-clusters the rows of the cluster of an anchor row, such as the component a cluster
+     * selection was made from, and of its nearest neighbouring clusters so as to satisfy the
+     * constraints as far as possible (COP-k-means). If the cluster holds rows that cannot be
+     * linked to the anchor, a new cluster is first started at the mean of those rows, so that
+     * rows like them can follow them out of the cluster.
+     * <p/>
+     * The anchor, and any other pinned rows in its cluster, such as those the user has seen
+     * selected and kept, stay in the cluster.
+     * <p/>
+     * Only the rows of the clusters involved are looked at: the rows of every cluster are
+     * listed once, on the first refinement, and each refinement then updates the lists of
+     * the clusters it changed. Apart from that first listing, the cost depends on the size
+     * of the clusters involved, not on the total number of rows.
+     *
+     * @param anchor      the row whose cluster to refine
+     * @param pinned      rows that stay in the cluster if they are in it, or <code>null</code>
+     * @param constraints the constraints between rows
+     */
+    void refine(int anchor, BitSet pinned, Constraints constraints)
+    {
+        int cluster = assignment[anchor];
+        float[] data = features.getData();
+        int[] local = nearestClusters(cluster, REFINE_NEIGHBOURS);
+        if (members == null)
+            listMembers();
+
+        // The rows involved, with the constrained ones first so that they are placed
+        // before the rows they constrain are
+        int involved = 0;
+        for (int c : local)
+            involved += members[c].length;
+        int[] rows = new int[involved];
+        int count = 0;
+        int constrained = 0;
+        double[] rejectedSum = new double[dimensions];
+        int rejected = 0;
+        for (int c : local)
+        {
+            for (int r : members[c])
+            {
+                if (constraints.isConstrained(r))
+                {
+                    rows[count++] = rows[constrained];
+                    rows[constrained++] = r;
+                    // a cannot-link is symmetric, so only count the rows rejected from the
+                    // anchor, not the anchor itself
+                    if (r != anchor && assignment[r] == cluster && constraints.isCannotLinked(anchor, r))
+                    {
+                        for (int f = 0; f < dimensions; f++)
+                            rejectedSum[f] += data[r * dimensions + f];
+                        rejected++;
+                    }
+                }
+                else
+                {
+                    rows[count++] = r;
+                }
+            }
+        }
+
+        if (rejected > 0)
+        {
+            float[] centre = new float[dimensions];
+            for (int f = 0; f < dimensions; f++)
+                centre[f] = (float) (rejectedSum[f] / rejected);
+            local = Arrays.copyOf(local, local.length + 1);
+            local[local.length - 1] = addCluster(centre);
+        }
+
+        for (int iteration = 0; iteration < MAX_REFINE_ITERATIONS; iteration++)
+        {
+            int changed = 0;
+            for (int i = 0; i < count; i++)
+            {
+                int r = rows[i];
+                if (r == anchor || pinned != null && pinned.get(r) && assignment[r] == cluster)
+                    continue;
+                int best = nearestAllowed(r, local, constraints);
+                if (best != assignment[r])
+                {
+                    assignment[r] = best;
+                    changed++;
+                }
+            }
+            updateCentroids(local, rows, count);
+            if (changed == 0)
+                break;
+        }
+
+        // the sizes are up to date, as the centres were updated after the last change
+        int[] filled = new int[k];
+        for (int c : local)
+            members[c] = new int[sizes[c]];
+        for (int i = 0; i < count; i++)
+        {
+            int c = assignment[rows[i]];
+            members[c][filled[c]++] = rows[i];
+        }
+    }
+
+    /**
+     * Lists the rows of every cluster
+     */
+    private void listMembers()
+    {
+        int[] counts = new int[k];
+        for (int c : assignment)
+            counts[c]++;
+        members = new int[k][];
+        for (int c = 0; c < k; c++)
+            members[c] = new int[counts[c]];
+        Arrays.fill(counts, 0);
+        for (int r = 0; r < assignment.length; r++)
+        {
+            int c = assignment[r];
+            members[c][counts[c]++] = r;
+        }
+    }
+
+    /**
+     * Finds the nearest of the given clusters that a row can join without breaking a
+     * constraint, or simply the nearest if there is none
+     */
+    private int nearestAllowed(int row, int[] clusters, Constraints constraints)
+    {
+        int[] cannot = constraints.cannotLinked(row);
+        int[] must = constraints.mustLinked(row);
+        int best = -1;
+        float bestDistance = Float.MAX_VALUE;
+        int nearest = clusters[0];
+        float nearestDistance = Float.MAX_VALUE;
+        for (int c : clusters)
+        {
+            float d = features.distanceSquared(row, centroids, c * dimensions);
+            if (d < nearestDistance)
+            {
+                nearestDistance = d;
+                nearest = c;
+            }
+            if (d >= bestDistance)
+                continue;
+            boolean allowed = true;
+            for (int i = 0; i < cannot.length && allowed; i++)
+                allowed = assignment[cannot[i]] != c;
+            for (int i = 0; i < must.length && allowed; i++)
+                allowed = assignment[must[i]] == c || !contains(clusters, assignment[must[i]]);
+            if (allowed)
+            {
+                bestDistance = d;
+                best = c;
+            }
+        }
+        return best >= 0 ? best : nearest;
+    }
+
+    private static boolean contains(int[] values, int value)
+    {
+        for (int v : values)
+            if (v == value)
+                return true;
+        return false;
+    }
+
+    /**
+     * @return the cluster followed by up to <code>count</code> other clusters, nearest
+     *         centres first
+     */
+    private int[] nearestClusters(int cluster, int count)
+    {
+        count = Math.min(count, k - 1);
+        int[] out = new int[count + 1];
+        float[] d = new float[count + 1];
+        out[0] = cluster;
+        int found = 0;
+        for (int c = 0; c < k; c++)
+        {
+            if (c == cluster)
+                continue;
+            float dc = centreDistanceSquared(cluster, c);
+            if (found < count || dc < d[found])
+            {
+                int i = found < count ? ++found : found;
+                while (i > 1 && d[i - 1] > dc)
+                {
+                    out[i] = out[i - 1];
+                    d[i] = d[i - 1];
+                    i--;
+                }
+                out[i] = c;
+                d[i] = dc;
+            }
+        }
+        return out;
+    }
+
+    private int addCluster(float[] centre)
+    {
+        centroids = Arrays.copyOf(centroids, (k + 1) * dimensions);
+        System.arraycopy(centre, 0, centroids, k * dimensions, dimensions);
+        sizes = Arrays.copyOf(sizes, k + 1);
+        halfGap = Arrays.copyOf(halfGap, k + 1);
+        if (members != null)
+        {
+            members = Arrays.copyOf(members, k + 1);
+            members[k] = new int[0];
+        }
+        return k++;
+    }
+
+    /**
+     * Recomputes the centres and sizes of some clusters from the given rows, which must
+     * be all the rows in those clusters. Empty clusters keep their centres.
+     */
+    private void updateCentroids(int[] clusters, int[] rows, int count)
+    {
+        float[] data = features.getData();
+        double[] sums = new double[k * dimensions];
+        for (int c : clusters)
+            sizes[c] = 0;
+        for (int i = 0; i < count; i++)
+        {
+            int r = rows[i];
+            int c = assignment[r];
+            sizes[c]++;
+            for (int f = 0; f < dimensions; f++)
+                sums[c * dimensions + f] += data[r * dimensions + f];
+        }
+        for (int c : clusters)
+            if (sizes[c] > 0)
+                for (int f = 0; f < dimensions; f++)
+                    centroids[c * dimensions + f] = (float) (sums[c * dimensions + f] / sizes[c]);
+    }
+
+    int getNumClusters()
+    {
+        return k;
+    }
+
+    /**
+     * @return the cluster of a row of the feature matrix
+     */
+    int getCluster(int row)
+    {
+        return assignment[row];
+    }
+
+    /**
+     * @return the number of rows in each cluster, as of the last centre update
+     */
+    int getSize(int cluster)
+    {
+        return sizes[cluster];
+    }
+
+    /**
+     * Assigns the rows <code>[from, to)</code> to their nearest centres
+     * <p/>
+     * Returns the number of rows that changed cluster.
+     */
+    private class Assign extends RecursiveTask<Integer>
+    {
+        private static final long serialVersionUID = 1L;
+        private final int from;
+        private final int to;
+
+        Assign(int from, int to)
+        {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Integer compute()
+        {
+            if (to - from > GRAIN)
+            {
+                int middle = (from + to) >>> 1;
+                Assign left = new Assign(from, middle);
+                left.fork();
+                int right = new Assign(middle, to).compute();
+                return right + left.join();
+            }
+
+            float[] data = features.getData();
+            int changed = 0;
+            for (int r = from; r < to; r++)
+            {
+                int current = assignment[r];
+                if (current >= 0)
+                {
+                    float bound = Math.max(halfGap[current], lower[r]);
+                    if (upper[r] <= bound)
+                        continue;
+                    upper[r] = (float) Math.sqrt(features.distanceSquared(r, centroids, current * dimensions));
+                    if (upper[r] <= bound)
+                        continue;
+                }
+
+                int base = r * dimensions;
+                int best = 0;
+                float bestDistance = Float.MAX_VALUE;
+                float secondDistance = Float.MAX_VALUE;
+                for (int c = 0; c < k; c++)
+                {
+                    int centre = c * dimensions;
+                    float d = 0;
+                    // Stop summing as soon as this centre cannot be one of the two nearest
+                    for (int f = 0; f < dimensions && d < secondDistance; f++)
+                    {
+                        float diff = data[base + f] - centroids[centre + f];
+                        d += diff * diff;
+                    }
+                    if (d < bestDistance)
+                    {
+                        secondDistance = bestDistance;
+                        bestDistance = d;
+                        best = c;
+                    }
+                    else if (d < secondDistance)
+                    {
+                        secondDistance = d;
+                    }
+                }
+                if (current != best)
+                {
+                    assignment[r] = best;
+                    changed++;
+                }
+                upper[r] = (float) Math.sqrt(bestDistance);
+                lower[r] = (float) Math.sqrt(secondDistance);
+            }
+            return changed;
+        }
+    }
+
+    /**
+     * Lowers the distance of each row in <code>[from, to)</code> to the nearest centre
+     * chosen so far, given a newly chosen centre
+     */
+    private class NearestSoFar extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+        private final int centre;
+        private final int from;
+        private final int to;
+
+        NearestSoFar(int centre, int from, int to)
+        {
+            this.centre = centre;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (to - from > GRAIN)
+            {
+                int middle = (from + to) >>> 1;
+                invokeAll(new NearestSoFar(centre, from, middle), new NearestSoFar(centre, middle, to));
+                return;
+            }
+
+            for (int r = from; r < to; r++)
+                upper[r] = Math.min(upper[r], features.distanceSquared(r, centroids, centre * dimensions));
+        }
+    }
+}
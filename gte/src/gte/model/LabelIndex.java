@@ -0,0 +1,290 @@
+package gte.model;
+
+import gte.utils.ClipStore;
+import gte.utils.ComponentCSV;
+import gte.utils.LabelJournal;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The ground truth labels of the components of a CSV file, held both ways round: the
+ * label of each row, and for each label a <code>BitSet</code> of the rows that have it
+ * <p/>
+ * The labels are recorded in a <code>LabelJournal</code>, which identifies a component by
+ * its page and connected component number, so the index also maps those to rows.
+ * <p/>
+ * For each label the index keeps the count of its rows and the sums and sums of squares
+ * of their normalised feature vectors, so the centroid and variance of the label in
+ * feature space are always at hand. Labelled rows are also put in a
+ * <code>SimilarityIndex</code>, built when first searched, to find the labelled
+ * components nearest to any component.
+ */
+class LabelIndex
+{
+    private final FeatureMatrix features;
+    private final int dimensions;
+
+    private final String[] labelOfRow;
+    private final BitSet labelled = new BitSet();
+    private final HashMap<String, Stats> statsOf = new HashMap<String, Stats>();
+
+    /** the number of changes made to the labels */
+    private int version = 0;
+
+    /** the labelled rows, and any whose labels have since been removed */
+    private SimilarityIndex neighbours;
+
+    /** the row of each component, by <code>LabelJournal.key(page, component)</code> */
+    private final HashMap<Long, Integer> rowOfKey = new HashMap<Long, Integer>();
+
+    /**
+     * @param table    the parsed CSV file
+     * @param features the normalised features of its rows
+     * @param labels   the labels read from its journal, by <code>LabelJournal.key</code>
+     */
+    LabelIndex(ComponentCSV table, FeatureMatrix features, Map<Long, String> labels)
+    {
+        this.features = features;
+        dimensions = features.getDimensions();
+        labelOfRow = new String[table.getNumRows()];
+        int[] pages = table.getIntColumn("page");
+        for (int row = 0; row < labelOfRow.length; row++)
+        {
+            int number = ClipStore.componentNumber(table.getString(row, "cc_image"));
+            if (number >= 0)
+                rowOfKey.put(LabelJournal.key(pages[row], number), row);
+        }
+        for (Map.Entry<Long, String> e : labels.entrySet())
+        {
+            Integer row = rowOfKey.get(e.getKey());
+            if (row != null)
+                set(row, e.getValue());
+        }
+    }
+
+    /**
+     * @return the row of a component, or -1 if there is none
+     */
+    int rowOf(int page, int component)
+    {
+        Integer row = rowOfKey.get(LabelJournal.key(page, component));
+        return row == null ? -1 : row;
+    }
+
+    /**
+     * @param label the new label of the row, or <code>null</code> to remove its label
+     */
+    void set(int row, String label)
+    {
+        String old = labelOfRow[row];
+        version++;
+        if (old != null)
+        {
+            Stats stats = statsOf.get(old);
+            stats.remove(row);
+            if (stats.count == 0)
+                statsOf.remove(old);
+            labelled.clear(row);
+        }
+        labelOfRow[row] = label;
+        if (label != null)
+        {
+            Stats stats = statsOf.get(label);
+            if (stats == null)
+                statsOf.put(label, stats = new Stats());
+            stats.add(row);
+            labelled.set(row);
+            if (neighbours != null)
+                neighbours.insert(row);
+        }
+    }
+
+    /**
+     * @return a number that changes whenever a label is given or removed
+     */
+    int getVersion()
+    {
+        return version;
+    }
+
+    /**
+     * @return the label of a row, or <code>null</code> if it has none
+     */
+    String getLabel(int row)
+    {
+        return labelOfRow[row];
+    }
+
+    /**
+     * @return the labels in use
+     */
+    Set<String> getLabels()
+    {
+        return statsOf.keySet();
+    }
+
+    /**
+     * @return the rows with a label
+     */
+    BitSet getRows(String label)
+    {
+        Stats stats = statsOf.get(label);
+        return stats == null ? new BitSet() : (BitSet) stats.rows.clone();
+    }
+
+    /**
+     * @return the rows with no label
+     */
+    BitSet getUnlabelled()
+    {
+        BitSet rows = new BitSet(labelOfRow.length);
+        rows.set(0, labelOfRow.length);
+        rows.andNot(labelled);
+        return rows;
+    }
+
+    /**
+     * @return the number of rows with a label
+     */
+    int count(String label)
+    {
+        Stats stats = statsOf.get(label);
+        return stats == null ? 0 : stats.count;
+    }
+
+    /**
+     * @return the number of rows with any label
+     */
+    int countLabelled()
+    {
+        return labelled.cardinality();
+    }
+
+    /**
+     * @return the mean normalised feature vector of the rows with a label, or
+     *         <code>null</code> if there are none
+     */
+    float[] getCentroid(String label)
+    {
+        Stats stats = statsOf.get(label);
+        if (stats == null)
+            return null;
+        float[] centroid = new float[dimensions];
+        for (int f = 0; f < dimensions; f++)
+            centroid[f] = (float) (stats.sum[f] / stats.count);
+        return centroid;
+    }
+
+    /**
+     * @return the variance of each normalised feature over the rows with a label, or
+     *         <code>null</code> if there are none
+     */
+    float[] getVariance(String label)
+    {
+        Stats stats = statsOf.get(label);
+        if (stats == null)
+            return null;
+        float[] variance = new float[dimensions];
+        for (int f = 0; f < dimensions; f++)
+        {
+            double mean = stats.sum[f] / stats.count;
+            variance[f] = (float) Math.max(0, stats.sumOfSquares[f] / stats.count - mean * mean);
+        }
+        return variance;
+    }
+
+    /**
+     * Finds (approximately) the labelled rows nearest to a row in feature space
+     *
+     * @param row any row
+     * @param k   the number of rows to find
+     * @return up to <code>k</code> labelled rows, nearest first, not including <code>row</code>
+     */
+    int[] nearestLabelled(int row, int k)
+    {
+        if (neighbours == null)
+        {
+            neighbours = new SimilarityIndex(features);
+            for (int r = labelled.nextSetBit(0); r >= 0; r = labelled.nextSetBit(r + 1))
+                neighbours.insert(r);
+        }
+        // rows whose labels have been removed are still in the graph, so look a little further
+        int[] found = neighbours.nearest(row, k + Math.min(k, neighbours.size() - countLabelled()));
+        int[] out = new int[Math.min(k, found.length)];
+        int count = 0;
+        for (int i = 0; i < found.length && count < out.length; i++)
+            if (labelled.get(found[i]))
+                out[count++] = found[i];
+        return count == out.length ? out : Arrays.copyOf(out, count);
+    }
+
+    /**
+     * Guesses the label of a set of rows, such as a cluster, by a vote of the labelled rows
+     * nearest to each of them
+     *
+     * @param rows the rows
+     * @param k    the number of labelled rows each row asks
+     * @return the most common label among them, or <code>null</code> if nothing is labelled
+     */
+    String guessLabel(int[] rows, int k)
+    {
+        HashMap<String, Integer> votes = new HashMap<String, Integer>();
+        String best = null;
+        int bestVotes = 0;
+        for (int row : rows)
+            for (int near : nearestLabelled(row, k))
+            {
+                String label = labelOfRow[near];
+                Integer v = votes.get(label);
+                int n = v == null ? 1 : v + 1;
+                votes.put(label, n);
+                if (n > bestVotes)
+                {
+                    best = label;
+                    bestVotes = n;
+                }
+            }
+        return best;
+    }
+
+    /**
+     * The rows of a label and the sums of their features
+     */
+    private class Stats
+    {
+        final BitSet rows = new BitSet();
+        int count = 0;
+        final double[] sum = new double[dimensions];
+        final double[] sumOfSquares = new double[dimensions];
+
+        void add(int row)
+        {
+            rows.set(row);
+            count++;
+            accumulate(row, 1);
+        }
+
+        void remove(int row)
+        {
+            rows.clear(row);
+            count--;
+            accumulate(row, -1);
+        }
+
+        private void accumulate(int row, int sign)
+        {
+            float[] data = features.getData();
+            int base = row * dimensions;
+            for (int f = 0; f < dimensions; f++)
+            {
+                double v = data[base + f];
+                sum[f] += sign * v;
+                sumOfSquares[f] += sign * v * v;
+            }
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package gte.model;
+
+import java.util.Arrays;
+
+/**
+ * Suggests labels for unlabelled components by the nearest centroid rule: a component is
+ * given the label whose centroid, the mean normalised feature vector of the components
+ * with that label, is nearest to its own feature vector
+ * <p/>
+ * The centroids come from the running sums the <code>LabelIndex</code> keeps up to date
+ * as labels are given, and are copied into one row-major matrix, with their squared norms,
+ * only when the index has changed since they were last copied. A batch of rows is then
+ * scored in one pass: the squared distance from a row <i>x</i> to a centroid <i>c</i> is
+ * |<i>x</i>|&sup2; - 2<i>x</i>&middot;<i>c</i> + |<i>c</i>|&sup2;, so each row costs one
+ * dot product per label over contiguous arrays.
+ * <p/>
+ * The confidence of a suggestion is how much nearer the nearest centroid is than the next:
+ * 1 - <i>d</i><sub>1</sub>/<i>d</i><sub>2</sub> for Euclidean distances
+ * <i>d</i><sub>1</sub> &le; <i>d</i><sub>2</sub>, so 0 for a tie and 1 for a component on
+ * its centroid. With only one label there is nothing to compare, and the confidence is
+ * <code>NaN</code>.
+ */
+class LabelSuggester
+{
+    private final LabelIndex index;
+    private final FeatureMatrix features;
+    private final int dimensions;
+
+    /** the version of the index the centroids were copied from */
+    private int version = -1;
+    private String[] labels = new String[0];
+    private float[] centroids = new float[0];
+    private float[] centroidNorms = new float[0];
+
+    LabelSuggester(LabelIndex index, FeatureMatrix features)
+    {
+        this.index = index;
+        this.features = features;
+        dimensions = features.getDimensions();
+    }
+
+    /**
+     * Suggests a label for each of a batch of rows
+     *
+     * @param rows       the rows
+     * @param suggested  set to the suggested label of each row, or <code>null</code> if
+     *                   nothing is labelled yet
+     * @param confidence set to the confidence of each suggestion
+     */
+    void suggest(int[] rows, String[] suggested, float[] confidence)
+    {
+        update();
+        int n = labels.length;
+        if (n == 0)
+        {
+            Arrays.fill(suggested, 0, rows.length, null);
+            Arrays.fill(confidence, 0, rows.length, 0);
+            return;
+        }
+        float[] data = features.getData();
+        for (int i = 0; i < rows.length; i++)
+        {
+            int base = rows[i] * dimensions;
+            float norm = 0;
+            for (int f = 0; f < dimensions; f++)
+                norm += data[base + f] * data[base + f];
+
+            float best = Float.MAX_VALUE;
+            float second = Float.MAX_VALUE;
+            int bestLabel = 0;
+            for (int l = 0, c = 0; l < n; l++, c += dimensions)
+            {
+                float dot = 0;
+                for (int f = 0; f < dimensions; f++)
+                    dot += data[base + f] * centroids[c + f];
+                float distance = Math.max(0, norm - 2 * dot + centroidNorms[l]);
+                if (distance < best)
+                {
+                    second = best;
+                    best = distance;
+                    bestLabel = l;
+                }
+                else if (distance < second)
+                    second = distance;
+            }
+            suggested[i] = labels[bestLabel];
+            if (n == 1)
+                confidence[i] = Float.NaN;
+            else
+                confidence[i] = second == 0 ? 0 : 1 - (float) Math.sqrt(best / second);
+        }
+    }
+
+    /**
+     * Copies the centroids from the index, if they have changed
+     */
+    private void update()
+    {
+        if (version == index.getVersion())
+            return;
+        labels = index.getLabels().toArray(new String[0]);
+        Arrays.sort(labels); // so that ties always go the same way
+        centroids = new float[labels.length * dimensions];
+        centroidNorms = new float[labels.length];
+        for (int l = 0; l < labels.length; l++)
+        {
+            float[] centroid = index.getCentroid(labels[l]);
+            System.arraycopy(centroid, 0, centroids, l * dimensions, dimensions);
+            float norm = 0;
+            for (float v : centroid)
+                norm += v * v;
+            centroidNorms[l] = norm;
+        }
+        version = index.getVersion();
+    }
+}
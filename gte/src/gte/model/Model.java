@@ -1,6 +1,9 @@
 package gte.model;
 
-import gte.utils.ImageFile;
+import gte.utils.ClipSource;
+import gte.utils.ComponentCSV;
+import gte.utils.LabelJournal;
+import gte.utils.PageCache;
 import gte.utils.UnsupportedImageTypeException;
 
 import java.awt.Dimension;
@@ -10,7 +13,12 @@ import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Set;
 
 /**
  * User: Alan P. Sexton
@@ -30,9 +38,63 @@ public class Model
     private BufferedImage image = null;
     private List<Rectangle> rects = new ArrayList<Rectangle>();
     private ArrayList<Component> comps = new ArrayList<Component>();
-    private ArrayList<Component> selected = new ArrayList<Component>();
+    private SelectionSet selection = new SelectionSet(comps);
     private File currentFile;
 
+    /** the pages of <code>currentFile</code> that have been read, or are being read ahead */
+    private final PageCache pages = new PageCache();
+
+    /** the most recently loaded CSV file, kept so that its pages need only be parsed once */
+    private File tableFile;
+    private volatile ClipSource clipSource;
+    private ComponentCSV table;
+    private volatile FeatureMatrix features;
+    /** set, once complete, by <code>clusterComponents</code>, which may run on another thread */
+    private volatile KMeans clusters;
+
+    /** the rows of the CSV file that have been loaded so far, by their feature vectors */
+    private SimilarityIndex similar;
+
+    /**
+     * the ground truth labels of the components of the CSV file, opened when a label is
+     * first written or, if the journal file already exists, first read
+     */
+    private LabelJournal labels;
+    /** the lines of the label journal that could not be read, until they have been reported */
+    private int unreportedSkippedLines;
+    private LabelIndex labelIndex;
+    private LabelSuggester suggester;
+
+    /**
+     * the suggested label and its confidence for each unlabelled component of the current
+     * page, by position, made from version <code>suggestionsVersion</code> of the label index
+     */
+    private String[] suggestions;
+    private float[] suggestionConfidences;
+    private int suggestionsVersion;
+
+    /** the components of the current page, by their row in the CSV file */
+    private Component[] componentOfRow;
+
+    /** the components of the current page by position, built when first needed after they change */
+    private ComponentIndex componentIndex;
+
+    /** what the user has said about the clustering by correcting cluster selections */
+    private Constraints constraints = new Constraints();
+
+    /** the component whose cluster is selected, while the user may still correct the selection */
+    private Component clusterAnchor;
+
+    /** the rows selected by <code>selectCluster</code> rather than by the user */
+    private BitSet selectedByCluster = new BitSet();
+
+    /** the most clusters <code>clusterComponents</code> makes by default */
+    private static final int MAX_DEFAULT_CLUSTERS = 256;
+    private static final long CLUSTER_SEED = 1;
+
+    /** how many of a set of components <code>guessLabel</code> looks at, and how many labelled neighbours each */
+    private static final int GUESS_SAMPLE = 32;
+    private static final int GUESS_NEIGHBOURS = 5;
 
 
     public Model()
@@ -55,151 +117,95 @@ public class Model
 
     public ArrayList<Component> getComps() { return comps; }
 
-    public ArrayList<Component> getSelected() { return selected; }
+    /**
+     * @return the selected components, in the order they were selected
+     */
+    public ArrayList<Component> getSelected() {
+        ArrayList<Component> out = new ArrayList<Component>(selection.size());
+        for (int i : selection.toArray()) {
+            out.add(comps.get(i));
+        }
+        return out;
+    }
 
-    public Component nextAbove() {
-        Rectangle currentBounds = getSelectedBounds();
-        Component closest = null;
-        for (Component c: comps) {
-            if (selected.contains(c)) {
-                continue;
-            }
-            double currentTop = c.getImageCoords().getY();
-            if (currentTop <= currentBounds.getY() &&
-                    (currentBounds.getMaxX() >= c.getImageCoords().getMaxX() && c.getImageCoords().getMaxX() >= currentBounds.getX() ||
-                            c.getImageCoords().getX() <= currentBounds.getMaxX() && currentBounds.getMaxX() <= c.getImageCoords().getMaxX())) {
-                if (currentBounds.contains(c.getImageCoords())) {
-                    return c;
-                }
+    /**
+     * @return the component selected first, or <code>null</code> if nothing is selected
+     */
+    public Component getFirstSelected() {
+        int i = selection.first();
+        return i < 0 ? null : comps.get(i);
+    }
 
-                if (closest == null) {
-                    closest = c;
-                }
-                if (closest.getImageCoords().getY() < currentTop) {
-                    closest = c;
-                }
-            }
-        }
-        return closest;
+    public int getSelectionSize() {
+        return selection.size();
     }
 
-    public Component nextBelow() {
-        Rectangle currentBounds = getSelectedBounds();
-        Component closest = null;
-        for (Component c: comps) {
-            if (selected.contains(c)) {
-                continue;
-            }
-            double currentBottom = c.getImageCoords().getMaxY();
-            if (currentBottom >= currentBounds.getMaxY() &&
-                    (currentBounds.getMaxX() >= c.getImageCoords().getMaxX() && c.getImageCoords().getMaxX() >= currentBounds.getX() ||
-                            c.getImageCoords().getX() <= currentBounds.getMaxX() && currentBounds.getMaxX() <= c.getImageCoords().getMaxX())) {
-                if (currentBounds.contains(c.getImageCoords())) {
-                    return c;
-                }
+    /**
+     * Tests if a component is selected. Selection is held by the <code>Model</code> as a set of
+     * positions in <code>getComps()</code>, so it costs nothing per component: the view highlights
+     * the selected components when it paints them.
+     */
+    public boolean isSelected(Component c) {
+        return isCurrent(c) && selection.contains(c.getIndex());
+    }
 
-                if (closest == null) {
-                    closest = c;
-                }
-                if (closest.getImageCoords().getMaxY() > currentBottom) {
-                    closest = c;
-                }
-            }
-        }
-        return closest;
+    /**
+     * Tests if a component may be selected: anything but the page border, which is caught as a
+     * very large component
+     */
+    private static boolean isSelectable(Component c) {
+        return !(c.getImageCoords().getHeight()>1000 && c.getImageCoords().getWidth()>1000);
     }
 
-    public Component nextRight() {
-        Rectangle currentBounds = getSelectedBounds();
-        Component closest = null;
-        for (Component c: comps) {
-            if (selected.contains(c)) {
-                continue;
-            }
-            double currentRight = c.getImageCoords().getMaxX();
-            if (currentRight >= currentBounds.getMaxX() &&
-                    (currentBounds.getMaxY() >= c.getImageCoords().getMaxY() && c.getImageCoords().getMaxY() >= currentBounds.getY() ||
-                            c.getImageCoords().getY() <= currentBounds.getMaxY() && currentBounds.getMaxY() <= c.getImageCoords().getMaxY())) {
-                if (currentBounds.contains(c.getImageCoords())) {
-                    return c;
-                }
+    /**
+     * @return whether a component is one of the components of the current page
+     */
+    private boolean isCurrent(Component c) {
+        int i = c.getIndex();
+        return i >= 0 && i < comps.size() && comps.get(i) == c;
+    }
 
-                if (closest == null) {
-                    closest = c;
-                }
-                if (closest.getImageCoords().getMaxX() > currentRight) {
-                    closest = c;
-                }
-            }
-        }
-        return closest;
+    public Component nextAbove() {
+        return nearest(ComponentIndex.ABOVE);
+    }
+
+    public Component nextBelow() {
+        return nearest(ComponentIndex.BELOW);
+    }
+
+    public Component nextRight() {
+        return nearest(ComponentIndex.RIGHT);
     }
 
     public Component nextLeft() {
-        Rectangle currentBounds = getSelectedBounds();
-        Component closest = null;
-        for (Component c: comps) {
-            if (selected.contains(c)) {
-                continue;
-            }
-            double currentRight = c.getImageCoords().getX();
-            if (currentRight <= currentBounds.getX() &&
-                    (currentBounds.getMaxY() >= c.getImageCoords().getMaxY() && c.getImageCoords().getMaxY() >= currentBounds.getY() ||
-                            c.getImageCoords().getY() <= currentBounds.getMaxY() && currentBounds.getMaxY() <= c.getImageCoords().getMaxY())) {
-                if (currentBounds.contains(c.getImageCoords())) {
-                    return c;
-                }
+        return nearest(ComponentIndex.LEFT);
+    }
 
-                if (closest == null) {
-                    closest = c;
-                }
-                if (closest.getImageCoords().getX() < currentRight) {
-                    closest = c;
-                }
-            }
-        }
-        return closest;
+    /**
+     * @return the closest unselected component level with the selection in a direction, or
+     *         <code>null</code> if there is none (see <code>ComponentIndex.nearest</code>)
+     */
+    private Component nearest(int direction) {
+        int i = getComponentIndex().nearest(direction, getSelectedBounds(), selection);
+        return i < 0 ? null : comps.get(i);
     }
 
+    /**
+     * @return the bounding box of the selected components, or an empty rectangle at (-1, -1) if
+     *         nothing is selected
+     */
     public Rectangle getSelectedBounds() {
-        double sx = -1;
-        double sy = -1;
-        double mx = -1;
-        double my = -1;
-        for (Component c : selected) {
-            if (c.getImageCoords().getMinX() < sx || sx == -1) {
-                sx = c.getImageCoords().getMinX();
-            }
-            if (c.getImageCoords().getMinY() < sy || sy == -1) {
-                sy = c.getImageCoords().getMinY();
-            }
-            if (c.getImageCoords().getMaxX() > mx || mx == -1) {
-                mx = c.getImageCoords().getMaxX();
-            }
-            if (c.getImageCoords().getMaxY() > my || my == -1) {
-                my = c.getImageCoords().getMaxY();
-            }
-        }
-        return new Rectangle((int)sx, (int)sy, (int)(mx-sx), (int)(my-sy));
+        Rectangle bounds = selection.getBounds();
+        return bounds == null ? new Rectangle(-1, -1, 0, 0) : bounds;
     }
 
     public Component whichClicked(Point p) {
-        for (Component c: comps) {
-            if (c.contains(p)) {
-                return c;
-            }
-        }
-        return null;
+        int[] found = getComponentIndex().intersecting(new Rectangle(p.x, p.y, 1, 1));
+        return found.length == 0 ? null : comps.get(found[0]);
     }
 
     public ArrayList<Component> allSelected(Rectangle r) {
-        ArrayList<Component> out = new ArrayList<Component>();
-        for (Component c: comps) {
-            if (r.intersects(c.getImageCoords())) {
-                out.add(c);
-            }
-        }
-        return out;
+        return getComponentsIn(r);
     }
 
     public void selectComponents(ArrayList<Component> a) {
@@ -225,45 +231,163 @@ public class Model
             return;
         }
 
-        if (c.getImageCoords().getHeight()>1000 && c.getImageCoords().getWidth()>1000) {
-            return;
+        if (isSelectable(c) && isCurrent(c)) {
+            selection.add(c.getIndex());
         }
-        selected.add(c);
-        c.select();
     }
 
     public void toggleComponents(ArrayList<Component> a) {
+        boolean corrected = false;
         for (Component c:a) {
-            toggleComponent(c);
+            corrected |= toggle(c);
+        }
+        if (corrected) {
+            refineCluster();
         }
     }
 
     public void toggleComponent(Component c) {
-        if (c.getImageCoords().getHeight()>1000 && c.getImageCoords().getWidth()>1000) {
-            return;
+        if (toggle(c)) {
+            refineCluster();
         }
-        if (c.getSelected()) {
-            selected.remove(c);
-        } else {
-            selected.add(c);
+    }
+
+    /**
+     * @return whether toggling the component corrected a cluster selection
+     */
+    private boolean toggle(Component c) {
+        if (!isSelectable(c) || !isCurrent(c)) {
+            return false;
         }
-        c.toggleSelected();
+        return recordCorrection(c, selection.flip(c.getIndex()));
     }
 
     public void deselectComponent(Component c) {
-        selected.remove(c);
-        c.deselect();
+        if (!isSelected(c)) {
+            return;
+        }
+        selection.remove(c.getIndex());
+        if (recordCorrection(c, false)) {
+            refineCluster();
+        }
+    }
+
+    /**
+     * Removes components from the selection, as a single correction of any cluster selection
+     */
+    public void deselectComponents(List<Component> a) {
+        boolean corrected = false;
+        for (Component c : a) {
+            if (isSelected(c)) {
+                selection.remove(c.getIndex());
+                corrected |= recordCorrection(c, false);
+            }
+        }
+        if (corrected) {
+            refineCluster();
+        }
+    }
+
+    /**
+     * Selects exactly the components that are not selected. This starts a new selection, so it
+     * is not taken as a correction of a cluster selection.
+     */
+    public void invertSelection() {
+        BitSet all = new BitSet(comps.size());
+        for (int i = 0; i < comps.size(); i++) {
+            if (isSelectable(comps.get(i))) {
+                all.set(i);
+            }
+        }
+        selection.invert(all);
+        clusterAnchor = null;
+        selectedByCluster.clear();
     }
 
     public void deselectAllComponents() {
-        for (Component c: selected) {
-            c.deselect();
+        selection.clear();
+        clusterAnchor = null;
+        selectedByCluster.clear();
+    }
+
+    /**
+     * Records the user adding a component to, or removing it from, the selected cluster as a
+     * must-link or cannot-link constraint between it and the component the cluster was
+     * selected from
+     *
+     * @return whether there was a cluster selection to correct
+     */
+    private boolean recordCorrection(Component c, boolean added) {
+        if (clusterAnchor == null || c.getRow() < 0) {
+            return false;
+        }
+        if (c == clusterAnchor) {
+            if (!added) {
+                clusterAnchor = null;
+                selectedByCluster.clear();
+            }
+            return false;
+        }
+        if (added) {
+            constraints.addMustLink(clusterAnchor.getRow(), c.getRow());
+        } else {
+            constraints.addCannotLink(clusterAnchor.getRow(), c.getRow());
+        }
+        selectedByCluster.clear(c.getRow());
+        return true;
+    }
+
+    /**
+     * Applies the constraints to the selected cluster and its neighbours, then brings the
+     * selection up to date: components that have left the cluster are deselected, unless
+     * the user selected them, and components that have joined it are selected, unless the
+     * user rejected them
+     * <p/>
+     * The components of the cluster that are still selected have been seen by the user and
+     * kept, so they stay in the cluster: only components the user has not reviewed follow
+     * the rejected ones out of it.
+     */
+    private void refineCluster() {
+        if (clusters == null || clusterAnchor == null) {
+            return;
+        }
+        int anchorRow = clusterAnchor.getRow();
+        BitSet kept = new BitSet();
+        for (int i : selection.toArray()) {
+            int row = comps.get(i).getRow();
+            if (row >= 0) {
+                kept.set(row);
+            }
+        }
+        clusters.refine(anchorRow, kept, constraints);
+        int cluster = clusters.getCluster(anchorRow);
+        for (Component c : comps) {
+            int row = c.getRow();
+            if (row < 0 || c == clusterAnchor) {
+                continue;
+            }
+            boolean inCluster = clusters.getCluster(row) == cluster;
+            if (inCluster && !isSelected(c) && !constraints.isCannotLinked(anchorRow, row)) {
+                selectComponent(c);
+                selectedByCluster.set(row);
+            } else if (!inCluster && isSelected(c) && selectedByCluster.get(row)) {
+                selection.remove(c.getIndex());
+                selectedByCluster.clear(row);
+            }
         }
-        selected.clear();
     }
 
     public void clearComps() {
+        deselectAllComponents();
+        for (Component c : comps) {
+            if (c.getRow() >= 0) {
+                componentOfRow[c.getRow()] = null;
+            }
+            c.setIndex(-1);
+        }
         comps.clear();
+        componentIndex = null;
+        suggestions = null;
     }
 
     public Dimension getDimensions()
@@ -291,10 +415,43 @@ public class Model
      */
     public void addComponent(Component comp)
     {
+        if (comp == null)
+            return;
+        comp.setIndex(comps.size());
         comps.add(comp);
+        componentIndex = null;
+        suggestions = null;
         //System.out.println(getComps());
     }
 
+    /**
+     * Finds the components of the current page whose bounding boxes intersect a region of
+     * the page, e.g. to draw only the components in view
+     *
+     * @param region the region, in page coordinates
+     * @return the components, in the order of <code>getComps()</code>
+     */
+    public ArrayList<Component> getComponentsIn(Rectangle region)
+    {
+        int[] found = getComponentIndex().intersecting(region);
+        ArrayList<Component> out = new ArrayList<Component>(found.length);
+        for (int i : found) {
+            out.add(comps.get(i));
+        }
+        return out;
+    }
+
+    /**
+     * @return the spatial index of the components of the current page, built if they have
+     *         changed since it was last used
+     */
+    private ComponentIndex getComponentIndex()
+    {
+        if (componentIndex == null)
+            componentIndex = new ComponentIndex(comps);
+        return componentIndex;
+    }
+
     /**
      * Tests if the model is active, i.e. whether it currently has an image
      *
@@ -307,6 +464,653 @@ public class Model
 
     public File getCurrentFile() { return this.currentFile; }
 
+    /**
+     * Adds the connected components of one page, as listed in a connected component CSV
+     * file, to the <code>Model</code>
+     * <p/>
+     * The image clips of the components of page <code>N</code> are read, when first needed,
+     * from the clip store <code>page-NNNN.clips</code> next to the CSV file if there is one
+     * (see <code>gte.PackClips</code>), or else from the individual clip files in the
+     * <code>page-NNNN</code> directory. The CSV file and the clips may also be read straight
+     * from a tar.gz or zip archive of their directory (see <code>ClipSource</code>).
+     *
+     * @param csvFile the CSV file describing the connected components of one or more pages,
+     *                or an archive holding it
+     * @param page    the page number (as given in the CSV file, starting from 1) to load
+     * @throws IOException if the CSV file cannot be read or is badly formatted
+     */
+    public void loadComponents(File csvFile, int page)
+            throws IOException
+    {
+        ComponentCSV table = loadTable(csvFile);
+
+        for (int row : table.getRowsOfPage(page)) {
+            Component c = new Component(table, row, clipSource);
+            addComponent(c);
+            componentOfRow[row] = c;
+            similar.insert(row);
+        }
+        // index the page now rather than on the first key press or click
+        getComponentIndex();
+    }
+
+    private ComponentCSV loadTable(File csvFile)
+            throws IOException
+    {
+        if (table == null || !csvFile.equals(tableFile)) {
+            ClipSource source = ClipSource.open(csvFile);
+            ComponentCSV newTable = source.readTable();
+            closeLabels();
+            table = newTable;
+            if (clipSource != null)
+                clipSource.close();
+            clipSource = source;
+            tableFile = csvFile;
+            features = new FeatureMatrix(table);
+            clusters = null;
+            constraints = new Constraints();
+            clusterAnchor = null;
+            selectedByCluster.clear();
+            similar = new SimilarityIndex(features);
+            componentOfRow = new Component[table.getNumRows()];
+        }
+        return table;
+    }
+
+    private LabelJournal getLabelJournal()
+            throws IOException
+    {
+        if (labels == null) {
+            labels = new LabelJournal(LabelJournal.journalFor(tableFile));
+            unreportedSkippedLines = labels.getSkippedLines();
+            if (labelIndex == null) {
+                labelIndex = new LabelIndex(table, features, labels.getLabels());
+                suggester = new LabelSuggester(labelIndex, features);
+            }
+        }
+        return labels;
+    }
+
+    /**
+     * Records the ground truth label of a component in the label journal of its CSV file
+     *
+     * @param c     the component
+     * @param label the label, or <code>null</code> to remove its label
+     * @return <code>false</code> if the component was not read from a CSV file, and so
+     *         cannot be labelled
+     * @throws IOException if the journal cannot be opened or written
+     */
+    public boolean labelComponent(Component c, String label)
+            throws IOException
+    {
+        return c != null && labelComponents(Collections.singletonList(c), label) == 1;
+    }
+
+    /**
+     * Gives every selected component the same ground truth label, in one record of the label
+     * journal
+     *
+     * @param label the label, or <code>null</code> to remove their labels
+     * @return the number of components labelled, which leaves out any not read from a CSV
+     *         file
+     * @throws IOException if the journal cannot be opened or written
+     */
+    public int labelSelection(String label)
+            throws IOException
+    {
+        return labelComponents(getSelected(), label);
+    }
+
+    /**
+     * Gives a set of components the same ground truth label, in one record of the label
+     * journal, so that either all of them are labelled or none are
+     *
+     * @param a     the components
+     * @param label the label, or <code>null</code> to remove their labels
+     * @return the number of components labelled, which leaves out any not read from a CSV
+     *         file
+     * @throws IOException if the journal cannot be opened or written
+     */
+    public int labelComponents(List<Component> a, String label)
+            throws IOException
+    {
+        if (tableFile == null)
+            return 0;
+        List<Component> labellable = new ArrayList<Component>(a.size());
+        for (Component c : a) {
+            if (c.getRow() >= 0 && c.getComponentNumber() >= 0) {
+                labellable.add(c);
+            }
+        }
+        if (labellable.isEmpty())
+            return 0;
+        int[] pages = new int[labellable.size()];
+        int[] numbers = new int[labellable.size()];
+        for (int i = 0; i < pages.length; i++) {
+            pages[i] = labellable.get(i).getPage();
+            numbers[i] = labellable.get(i).getComponentNumber();
+        }
+        getLabelJournal().appendAll(pages, numbers, label);
+        for (Component c : labellable) {
+            labelIndex.set(c.getRow(), label);
+        }
+        return labellable.size();
+    }
+
+    /**
+     * @return the ground truth label of a component, or <code>null</code> if it has none
+     * @throws IOException if the label journal cannot be opened
+     */
+    public String getLabel(Component c)
+            throws IOException
+    {
+        if (c == null || c.getRow() < 0 || tableFile == null)
+            return null;
+        return getLabelIndex().getLabel(c.getRow());
+    }
+
+    /**
+     * @return the ground truth label that every one of a set of components has, or
+     *         <code>null</code> if they have different labels or any has none
+     * @throws IOException if the label journal cannot be opened
+     */
+    public String getLabel(List<Component> a)
+            throws IOException
+    {
+        String label = null;
+        for (Component c : a) {
+            String l = getLabel(c);
+            if (l == null || label != null && !label.equals(l)) {
+                return null;
+            }
+            label = l;
+        }
+        return label;
+    }
+
+    /**
+     * Gets the number of complete lines of the label journal that could not be read when it
+     * was opened, such as lines damaged by editing the file by hand. Their labels are left
+     * out, though the lines stay in the file. The lines are only counted once: after that
+     * this returns 0 until the journal is opened again.
+     *
+     * @return the number of lines skipped and not yet reported
+     */
+    public int takeSkippedLabelLines()
+    {
+        int skipped = unreportedSkippedLines;
+        unreportedSkippedLines = 0;
+        return skipped;
+    }
+
+    /**
+     * @return the label journal file of the loaded CSV file, or <code>null</code> if no CSV
+     *         file has been loaded
+     */
+    public File getLabelJournalFile()
+    {
+        return tableFile == null ? null : LabelJournal.journalFor(tableFile);
+    }
+
+    /**
+     * Gets the labels of the CSV file, reading them from its journal if there is one. Until
+     * a label is written, a CSV file without a journal has no labels, so none is created
+     * just to read them.
+     */
+    private LabelIndex getLabelIndex()
+            throws IOException
+    {
+        if (labelIndex == null) {
+            if (LabelJournal.journalFor(tableFile).exists()) {
+                getLabelJournal();
+            } else {
+                labelIndex = new LabelIndex(table, features, new HashMap<Long, String>());
+                suggester = new LabelSuggester(labelIndex, features);
+            }
+        }
+        return labelIndex;
+    }
+
+    /**
+     * @return the labels given to components of the CSV file so far, or none if no CSV file
+     *         has been loaded
+     * @throws IOException if the label journal cannot be opened
+     */
+    public Set<String> getLabelNames()
+            throws IOException
+    {
+        if (tableFile == null)
+            return Collections.emptySet();
+        return Collections.unmodifiableSet(getLabelIndex().getLabels());
+    }
+
+    /**
+     * @return the number of components of the CSV file, on any page, with a label
+     * @throws IOException if the label journal cannot be opened
+     */
+    public int getLabelCount(String label)
+            throws IOException
+    {
+        return tableFile == null ? 0 : getLabelIndex().count(label);
+    }
+
+    /**
+     * @return the components of the current page with a label
+     * @throws IOException if the label journal cannot be opened
+     */
+    public ArrayList<Component> getLabelled(String label)
+            throws IOException
+    {
+        ArrayList<Component> out = new ArrayList<Component>();
+        if (tableFile == null)
+            return out;
+        BitSet rows = getLabelIndex().getRows(label);
+        for (Component c : comps) {
+            if (c.getRow() >= 0 && rows.get(c.getRow())) {
+                out.add(c);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * @return the components of the current page with no label, including any not read from
+     *         a CSV file
+     * @throws IOException if the label journal cannot be opened
+     */
+    public ArrayList<Component> getUnlabelled()
+            throws IOException
+    {
+        if (tableFile == null)
+            return new ArrayList<Component>(comps);
+        BitSet unlabelled = getLabelIndex().getUnlabelled();
+        ArrayList<Component> out = new ArrayList<Component>();
+        for (Component c : comps) {
+            if (c.getRow() < 0 || unlabelled.get(c.getRow())) {
+                out.add(c);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Finds (approximately) the labelled components, on any page, that look most like a
+     * component, and returns those on the current page
+     *
+     * @param k the number of labelled components to look for
+     * @throws IOException if the label journal cannot be opened
+     */
+    public ArrayList<Component> findNearestLabelled(Component c, int k)
+            throws IOException
+    {
+        if (tableFile == null || c.getRow() < 0)
+            return new ArrayList<Component>();
+        return onCurrentPage(getLabelIndex().nearestLabelled(c.getRow(), k));
+    }
+
+    /**
+     * Guesses the label of a set of components, such as a selected cluster, from the
+     * labels of the labelled components, on any page, that look most like them
+     *
+     * @return the likely label, or <code>null</code> if there is nothing to go on
+     * @throws IOException if the label journal cannot be opened
+     */
+    public String guessLabel(List<Component> a)
+            throws IOException
+    {
+        if (tableFile == null)
+            return null;
+        int[] rows = new int[Math.min(a.size(), GUESS_SAMPLE)];
+        int count = 0;
+        for (int i = 0; i < rows.length; i++) {
+            // spread the sample over the whole set
+            Component c = a.get((int) ((long) i * a.size() / rows.length));
+            if (c.getRow() >= 0) {
+                rows[count++] = c.getRow();
+            }
+        }
+        return getLabelIndex().guessLabel(Arrays.copyOf(rows, count), GUESS_NEIGHBOURS);
+    }
+
+    /**
+     * Suggests a label for a set of components, such as the selection, from the centroids
+     * of the labels given so far (see <code>LabelSuggester</code>). Each unlabelled
+     * component of the set on the current page votes for its nearest label, weighted by
+     * the confidence of that suggestion.
+     *
+     * @return the label with most votes, or <code>null</code> if there are no labels or
+     *         the set has no unlabelled components
+     * @throws IOException if the label journal cannot be opened
+     */
+    public String suggestLabel(List<Component> a)
+            throws IOException
+    {
+        return suggestLabel(a, null);
+    }
+
+    /**
+     * @return the confidence, from 0 to 1, of the label <code>suggestLabel</code> suggests
+     *         for a set of components: the mean confidence of the votes for it, with the
+     *         components that voted otherwise counted as 0. This is <code>NaN</code> when
+     *         only one label has been given, or there is no suggestion.
+     * @throws IOException if the label journal cannot be opened
+     */
+    public float getSuggestionConfidence(List<Component> a)
+            throws IOException
+    {
+        float[] confidence = new float[] { Float.NaN };
+        suggestLabel(a, confidence);
+        return confidence[0];
+    }
+
+    private String suggestLabel(List<Component> a, float[] confidence)
+            throws IOException
+    {
+        if (tableFile == null)
+            return null;
+        suggestPage();
+        HashMap<String, Float> votes = new HashMap<String, Float>();
+        String best = null;
+        float bestVotes = 0;
+        int voters = 0;
+        for (Component c : a) {
+            int i = c.getIndex();
+            if (!isCurrent(c) || suggestions[i] == null) {
+                continue;
+            }
+            voters++;
+            // with a single label the confidence is NaN, but every vote goes the same way
+            float weight = Float.isNaN(suggestionConfidences[i]) ? 1 : suggestionConfidences[i];
+            Float v = votes.get(suggestions[i]);
+            float total = (v == null ? 0 : v) + weight;
+            votes.put(suggestions[i], total);
+            if (best == null || total > bestVotes) {
+                best = suggestions[i];
+                bestVotes = total;
+            }
+        }
+        if (confidence != null && best != null) {
+            confidence[0] = labelIndex.getLabels().size() == 1 ? Float.NaN : bestVotes / voters;
+        }
+        return best;
+    }
+
+    /**
+     * Makes the suggestions for every unlabelled component of the current page, in one
+     * batch, unless they are up to date
+     */
+    private void suggestPage()
+            throws IOException
+    {
+        LabelIndex index = getLabelIndex();
+        if (suggestions != null && suggestionsVersion == index.getVersion())
+            return;
+        int[] rows = new int[comps.size()];
+        int[] positions = new int[comps.size()];
+        int count = 0;
+        for (Component c : comps) {
+            if (c.getRow() >= 0 && index.getLabel(c.getRow()) == null) {
+                rows[count] = c.getRow();
+                positions[count++] = c.getIndex();
+            }
+        }
+        rows = Arrays.copyOf(rows, count);
+        String[] suggested = new String[count];
+        float[] confidence = new float[count];
+        suggester.suggest(rows, suggested, confidence);
+
+        suggestions = new String[comps.size()];
+        suggestionConfidences = new float[comps.size()];
+        for (int k = 0; k < count; k++) {
+            suggestions[positions[k]] = suggested[k];
+            suggestionConfidences[positions[k]] = confidence[k];
+        }
+        suggestionsVersion = index.getVersion();
+    }
+
+    /**
+     * Writes the labels recorded so far to disk, compacts them into the JSON file next to
+     * the label journal (see <code>LabelJournal.export</code>) and closes the journal
+     *
+     * @throws IOException if the labels cannot be written
+     */
+    public void closeLabels()
+            throws IOException
+    {
+        LabelJournal journal = labels;
+        labels = null;
+        unreportedSkippedLines = 0;
+        labelIndex = null;
+        suggester = null;
+        suggestions = null;
+        if (journal == null)
+            return;
+        try {
+            journal.sync();
+            journal.export(journal.getExportFile());
+        } finally {
+            journal.close();
+        }
+    }
+
+    /**
+     * Tests if the components have been clustered, i.e. whether <code>clusterComponents</code>
+     * has been called since the CSV file was loaded
+     */
+    public boolean isClustered()
+    {
+        return clusters != null;
+    }
+
+    /**
+     * Clusters all the components of the loaded CSV file, on every page, by their
+     * feature vectors
+     * <p/>
+     * The number of clusters is the square root of half the number of components, up to
+     * a maximum of <code>MAX_DEFAULT_CLUSTERS</code>.
+     * <p/>
+     * Clustering a whole volume takes a while, so this may be called off the event
+     * dispatch thread: the clustering is only made visible once it is complete, and is
+     * dropped if another CSV file has been loaded in the meantime.
+     */
+    public void clusterComponents()
+    {
+        ComponentCSV table = this.table;
+        if (table == null)
+            throw new IllegalStateException("No components have been loaded");
+        int n = table.getNumRows();
+        clusterComponents((int) Math.min(MAX_DEFAULT_CLUSTERS, Math.round(Math.sqrt(n / 2.0))));
+    }
+
+    /**
+     * Clusters all the components of the loaded CSV file, on every page, by their
+     * feature vectors. This may be called off the event dispatch thread, as
+     * <code>clusterComponents()</code> may.
+     *
+     * @param k the number of clusters to make
+     */
+    public void clusterComponents(int k)
+    {
+        FeatureMatrix features = this.features;
+        if (features == null)
+            throw new IllegalStateException("No components have been loaded");
+        KMeans clustered = new KMeans(features, k);
+        clustered.run(CLUSTER_SEED);
+        if (features == this.features) {
+            clusters = clustered;
+        }
+    }
+
+    /**
+     * Finds the components of the current page that are in the same cluster as a given
+     * component (including the component itself)
+     *
+     * @param c a component of the current page
+     * @return the components in the cluster, or just <code>c</code> if the components
+     *         have not been clustered
+     */
+    public ArrayList<Component> getClusterOf(Component c)
+    {
+        ArrayList<Component> out = new ArrayList<Component>();
+        if (clusters == null || c.getRow() < 0) {
+            out.add(c);
+            return out;
+        }
+        int cluster = clusters.getCluster(c.getRow());
+        for (Component other : comps) {
+            if (other.getRow() >= 0 && clusters.getCluster(other.getRow()) == cluster) {
+                out.add(other);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Extends the selection to the other pages of the loaded CSV file: finds the selected
+     * components, followed by the components of other pages that are in the same cluster as
+     * a given component
+     * <p/>
+     * On the current page the user has reviewed the cluster, so only what they have kept
+     * selected is included. On other pages, components the user has said cannot be linked
+     * to <code>c</code> or to the component the cluster was selected from, and components
+     * that cannot be selected, such as the page border, are left out. Those components are
+     * made for the purpose and are not part of the model, but can be labelled.
+     *
+     * @param c a selected component of the current page
+     * @return the components, by page, or just the selection if the components have not
+     *         been clustered
+     */
+    public ArrayList<Component> getClusterAcrossPages(Component c)
+    {
+        ArrayList<Component> out = getSelected();
+        if (clusters == null || c.getRow() < 0) {
+            return out;
+        }
+        int anchorRow = clusterAnchor == null ? -1 : clusterAnchor.getRow();
+        int cluster = clusters.getCluster(c.getRow());
+        for (int page : table.getPageNumbers()) {
+            for (int row : table.getRowsOfPage(page)) {
+                if (componentOfRow[row] != null || clusters.getCluster(row) != cluster
+                        || constraints.isCannotLinked(c.getRow(), row)
+                        || anchorRow >= 0 && constraints.isCannotLinked(anchorRow, row)) {
+                    continue;
+                }
+                Component other = componentAt(row);
+                if (isSelectable(other)) {
+                    out.add(other);
+                }
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Gets the components of any page of the loaded CSV file, without loading the page:
+     * those of the current page are the components shown, and those of other pages are
+     * made for the purpose and are not part of the model, but can be labelled
+     *
+     * @param page the page number, starting from 1
+     * @return the components, in the order of the CSV file, or none if no CSV file has
+     *         been loaded
+     */
+    public ArrayList<Component> getComponentsOfPage(int page)
+    {
+        ArrayList<Component> out = new ArrayList<Component>();
+        if (table == null)
+            return out;
+        for (int row : table.getRowsOfPage(page)) {
+            out.add(componentAt(row));
+        }
+        return out;
+    }
+
+    /**
+     * @return the component of a row of the CSV file: the one shown if it is on the current
+     *         page, or else a new one
+     */
+    private Component componentAt(int row)
+    {
+        return componentOfRow[row] != null ? componentOfRow[row] : new Component(table, row, clipSource);
+    }
+
+    /**
+     * Finds the components of the current page that look most like a given one, i.e. whose
+     * feature vectors are nearest to its own
+     * <p/>
+     * The index holds the components of every page loaded so far, so the search is widened
+     * until enough of those found are on the current page, or the index is exhausted.
+     *
+     * @param c a component of the current page
+     * @param k how many components to find
+     * @return up to <code>k</code> components of the current page, nearest first
+     */
+    public ArrayList<Component> findSimilar(Component c, int k)
+    {
+        if (similar == null || c.getRow() < 0 || k <= 0) {
+            return new ArrayList<Component>();
+        }
+        for (int wanted = k; ; wanted *= 2) {
+            ArrayList<Component> found = onCurrentPage(similar.nearest(c.getRow(), wanted));
+            if (found.size() >= k) {
+                return new ArrayList<Component>(found.subList(0, k));
+            }
+            if (wanted >= similar.size()) {
+                return found;
+            }
+        }
+    }
+
+    /**
+     * Finds the components on the current page whose feature vectors are within a given
+     * distance of those of a given component. Features are standardised, so the distance is
+     * in standard deviations.
+     *
+     * @param c      a component of the current page
+     * @param radius the largest distance to include
+     * @return the components found, nearest first
+     */
+    public ArrayList<Component> findWithin(Component c, float radius)
+    {
+        if (similar == null || c.getRow() < 0) {
+            return new ArrayList<Component>();
+        }
+        return onCurrentPage(similar.within(c.getRow(), radius));
+    }
+
+    private ArrayList<Component> onCurrentPage(int[] rows)
+    {
+        ArrayList<Component> out = new ArrayList<Component>();
+        for (int row : rows) {
+            if (componentOfRow[row] != null) {
+                out.add(componentOfRow[row]);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Adds all the components of the current page in the same cluster as <code>c</code>
+     * to the selection
+     * <p/>
+     * Until the selection is cleared, deselecting components of the cluster or adding other
+     * components to the selection is taken as feedback on the clustering: the cluster and
+     * its neighbours are refined accordingly and the selection updated to match.
+     */
+    public void selectCluster(Component c)
+    {
+        clusterAnchor = c.getRow() >= 0 && clusters != null ? c : null;
+        BitSet members = new BitSet(comps.size());
+        for (Component other : getClusterOf(c)) {
+            if (!isSelected(other) && isSelectable(other) && isCurrent(other)) {
+                members.set(other.getIndex());
+                if (other.getRow() >= 0) {
+                    selectedByCluster.set(other.getRow());
+                }
+            }
+        }
+        selection.addAll(members);
+    }
+
     public void loadImage(File file)
             throws IOException, UnsupportedImageTypeException
     {
@@ -323,17 +1127,56 @@ public class Model
 
     }
 
+    /**
+     * Shows a page of a multi-page image file. The pages either side of it, and the clips of
+     * their components if a CSV file has been loaded, are then read in the background.
+     */
     public void loadImageWithNumber(File file, int n)
             throws IOException, UnsupportedImageTypeException
     {
         currentFile = file;
-        ImageFile newImageFile = new ImageFile(file);
-        int numImages = newImageFile.getNumImages();
+        int numImages = pages.getNumPages(file);
         if (numImages == 0)
             throw new IOException("Image file contains no images");
-        BufferedImage bi = newImageFile.getBufferedImage(n);
+        BufferedImage bi = pages.getPage(file, n);
         setImage(bi);
 
+        pages.prefetch(file, n + 1);
+        pages.prefetch(file, n - 1);
+        // CSV pages are numbered from 1
+        prefetchClips(n + 1);
+        prefetchClips(n + 2);
+        prefetchClips(n);
+    }
+
+    /**
+     * Reads the clips of the components of a page of the loaded CSV file into the clip
+     * source's cache, in the background
+     */
+    private void prefetchClips(final int page)
+    {
+        final ComponentCSV table = this.table;
+        final ClipSource source = this.clipSource;
+        if (table == null || page < 1)
+            return;
+        pages.runInBackground(new Runnable()
+        {
+            public void run()
+            {
+                try {
+                    for (int row : table.getRowsOfPage(page)) {
+                        if (source != clipSource) {
+                            return; // another CSV file has been loaded since
+                        }
+                        source.getClip(page, table.getString(row, "cc_image"));
+                    }
+                } catch (IOException ignored) {
+                    // the clip is reported when it is shown
+                } catch (IllegalStateException ignored) {
+                    // the source was closed while the clip was being read
+                }
+            }
+        });
     }
 
 
@@ -0,0 +1,229 @@
+package gte.model;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * The selected components of a page, as a set of positions in the <code>Model</code>'s
+ * component list that also remembers the order they were selected in
+ * <p/>
+ * Membership is a <code>BitSet</code>. The order is a list of positions in which removed
+ * entries are left as holes until they make up half the list, when it is compacted, so
+ * adding, removing and testing a component are all constant time. The bounding box of the
+ * selection grows with each addition; a removal only forces it to be recomputed, when it
+ * is next asked for, if the removed component lay on its edge.
+ */
+class SelectionSet
+{
+    private static final int REMOVED = -1;
+
+    /** the boxes of the components, by position */
+    private final List<Component> comps;
+
+    private final BitSet members = new BitSet();
+    private int size = 0;
+
+    /** the positions of the members in the order they were added, with REMOVED holes */
+    private int[] order = new int[64];
+    private int start = 0;
+    private int end = 0;
+
+    /** where each member is in <code>order</code>, by position */
+    private int[] slot = new int[64];
+
+    private int minX, minY, maxX, maxY;
+    private boolean boundsValid = true;
+
+    SelectionSet(List<Component> comps)
+    {
+        this.comps = comps;
+        clear();
+    }
+
+    int size()
+    {
+        return size;
+    }
+
+    boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    boolean contains(int i)
+    {
+        return i >= 0 && members.get(i);
+    }
+
+    BitSet getMembers()
+    {
+        return (BitSet) members.clone();
+    }
+
+    /**
+     * @return whether the position was added, i.e. was not already a member
+     */
+    boolean add(int i)
+    {
+        if (members.get(i))
+            return false;
+        members.set(i);
+        size++;
+        if (end == order.length)
+            order = Arrays.copyOf(order, end * 2);
+        if (i >= slot.length)
+            slot = Arrays.copyOf(slot, Math.max(i + 1, slot.length * 2));
+        slot[i] = end;
+        order[end++] = i;
+        if (boundsValid)
+            grow(comps.get(i).getImageCoords());
+        return true;
+    }
+
+    /**
+     * @return whether the position was removed, i.e. was a member
+     */
+    boolean remove(int i)
+    {
+        if (!contains(i))
+            return false;
+        members.clear(i);
+        size--;
+        order[slot[i]] = REMOVED;
+        while (start < end && order[start] == REMOVED)
+            start++;
+        if (size == 0)
+            clear();
+        else
+        {
+            if (end > 32 && size < end / 2)
+                compact();
+            Rectangle r = comps.get(i).getImageCoords();
+            if (r.x == minX || r.y == minY || r.x + r.width == maxX || r.y + r.height == maxY)
+                boundsValid = false;
+        }
+        return true;
+    }
+
+    /**
+     * @return whether the position is a member afterwards
+     */
+    boolean flip(int i)
+    {
+        if (contains(i))
+        {
+            remove(i);
+            return false;
+        }
+        add(i);
+        return true;
+    }
+
+    /**
+     * Adds every position in a set, in increasing order
+     */
+    void addAll(BitSet positions)
+    {
+        for (int i = positions.nextSetBit(0); i >= 0; i = positions.nextSetBit(i + 1))
+            add(i);
+    }
+
+    /**
+     * Removes every position in a set
+     */
+    void removeAll(BitSet positions)
+    {
+        for (int i = positions.nextSetBit(0); i >= 0; i = positions.nextSetBit(i + 1))
+            remove(i);
+    }
+
+    /**
+     * Replaces the selection with the positions of a set that are not in it, in increasing
+     * order
+     *
+     * @param all the positions that can be selected
+     */
+    void invert(BitSet all)
+    {
+        BitSet inverse = (BitSet) all.clone();
+        inverse.andNot(members);
+        clear();
+        addAll(inverse);
+    }
+
+    void clear()
+    {
+        members.clear();
+        size = 0;
+        start = 0;
+        end = 0;
+        minX = minY = Integer.MAX_VALUE;
+        maxX = maxY = Integer.MIN_VALUE;
+        boundsValid = true;
+    }
+
+    private void compact()
+    {
+        int count = 0;
+        for (int k = 0; k < end; k++)
+        {
+            int i = order[k];
+            if (i == REMOVED)
+                continue;
+            slot[i] = count;
+            order[count++] = i;
+        }
+        start = 0;
+        end = count;
+    }
+
+    /**
+     * @return the position of the earliest added member, or -1 if the selection is empty
+     */
+    int first()
+    {
+        return size == 0 ? -1 : order[start];
+    }
+
+    /**
+     * @return the positions of the members, in the order they were added
+     */
+    int[] toArray()
+    {
+        int[] out = new int[size];
+        int count = 0;
+        for (int k = start; k < end; k++)
+            if (order[k] != REMOVED)
+                out[count++] = order[k];
+        return out;
+    }
+
+    private void grow(Rectangle r)
+    {
+        minX = Math.min(minX, r.x);
+        minY = Math.min(minY, r.y);
+        maxX = Math.max(maxX, r.x + r.width);
+        maxY = Math.max(maxY, r.y + r.height);
+    }
+
+    /**
+     * @return the bounding box of the selected components, or <code>null</code> if the
+     *         selection is empty
+     */
+    Rectangle getBounds()
+    {
+        if (size == 0)
+            return null;
+        if (!boundsValid)
+        {
+            minX = minY = Integer.MAX_VALUE;
+            maxX = maxY = Integer.MIN_VALUE;
+            for (int i = members.nextSetBit(0); i >= 0; i = members.nextSetBit(i + 1))
+                grow(comps.get(i).getImageCoords());
+            boundsValid = true;
+        }
+        return new Rectangle(minX, minY, maxX - minX, maxY - minY);
+    }
+}
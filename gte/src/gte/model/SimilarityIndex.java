@@ -0,0 +1,426 @@
+package gte.model;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * An approximate nearest neighbour index over the rows of a <code>FeatureMatrix</code>,
+ * as a hierarchical navigable small world graph (HNSW)
+ * <p/>
+ * Each inserted row is a node on a random number of layers, with exponentially fewer
+ * nodes on each higher layer. On every layer a node is linked to up to <code>M</code>
+ * (<code>2 * M</code> on the bottom layer) well spread near neighbours. A search
+ * descends greedily through the upper layers and then runs a best first search of
+ * the bottom layer keeping the <code>ef</code> closest nodes found.
+ * <p/>
+ * Rows can be inserted at any time and in any order, so the index grows as pages are
+ * loaded. Distances are Euclidean in the normalised feature space. The index is not
+ * thread safe.
+ */
+class SimilarityIndex
+{
+    private static final int M = 16;
+    private static final int M0 = 2 * M;
+    private static final int EF_CONSTRUCTION = 100;
+    private static final int EF_SEARCH = 64;
+    private static final int MAX_LEVEL = 16;
+
+    private final FeatureMatrix features;
+    private final int dimensions;
+    private final Random random = new Random(1);
+    private final double levelMultiplier = 1 / Math.log(M);
+
+    /** the top layer of each row, or -1 if the row has not been inserted */
+    private final int[] levelOf;
+
+    /**
+     * links[row][layer] holds the number of neighbours of the row on that layer,
+     * followed by the neighbours
+     */
+    private final int[][][] links;
+
+    private int entryPoint = -1;
+    private int topLevel = -1;
+    private int size = 0;
+
+    /** marks the rows visited by the current search */
+    private final int[] visited;
+    private int visitStamp = 0;
+
+    private final Heap candidates = new Heap(false);
+    private final Heap results = new Heap(true);
+
+    SimilarityIndex(FeatureMatrix features)
+    {
+        this.features = features;
+        dimensions = features.getDimensions();
+        levelOf = new int[features.getNumRows()];
+        Arrays.fill(levelOf, -1);
+        links = new int[features.getNumRows()][][];
+        visited = new int[features.getNumRows()];
+    }
+
+    int size()
+    {
+        return size;
+    }
+
+    boolean contains(int row)
+    {
+        return levelOf[row] >= 0;
+    }
+
+    private float distance(int a, int b)
+    {
+        return features.distanceSquared(a, features.getData(), b * dimensions);
+    }
+
+    /**
+     * Adds a row to the index. Rows already in the index are ignored.
+     */
+    void insert(int row)
+    {
+        if (contains(row))
+            return;
+
+        int level = Math.min(MAX_LEVEL, (int) (-Math.log(1 - random.nextDouble()) * levelMultiplier));
+        levelOf[row] = level;
+        links[row] = new int[level + 1][];
+        for (int l = 0; l <= level; l++)
+            links[row][l] = new int[(l == 0 ? M0 : M) + 1];
+        size++;
+
+        if (entryPoint < 0)
+        {
+            entryPoint = row;
+            topLevel = level;
+            return;
+        }
+
+        float[] data = features.getData();
+        int offset = row * dimensions;
+        int nearest = entryPoint;
+        for (int l = topLevel; l > level; l--)
+            nearest = greedy(data, offset, nearest, l);
+
+        for (int l = Math.min(level, topLevel); l >= 0; l--)
+        {
+            searchLayer(data, offset, nearest, EF_CONSTRUCTION, l);
+            int[] found = results.drainAscending();
+            nearest = found[0];
+            int[] chosen = selectNeighbours(row, found, l == 0 ? M0 : M);
+            for (int neighbour : chosen)
+            {
+                addLink(row, neighbour, l);
+                addLink(neighbour, row, l);
+            }
+        }
+
+        if (level > topLevel)
+        {
+            topLevel = level;
+            entryPoint = row;
+        }
+    }
+
+    /**
+     * Picks up to <code>max</code> neighbours for a node from candidates sorted by
+     * distance, skipping any candidate that is closer to an already picked neighbour than
+     * to the node, so that the links point in different directions
+     */
+    private int[] selectNeighbours(int row, int[] sorted, int max)
+    {
+        int[] chosen = new int[Math.min(max, sorted.length)];
+        int count = 0;
+        for (int i = 0; i < sorted.length && count < chosen.length; i++)
+        {
+            int candidate = sorted[i];
+            if (candidate == row)
+                continue;
+            float d = distance(candidate, row);
+            boolean keep = true;
+            for (int j = 0; j < count && keep; j++)
+                keep = distance(candidate, chosen[j]) >= d;
+            if (keep)
+                chosen[count++] = candidate;
+        }
+        return Arrays.copyOf(chosen, count);
+    }
+
+    private void addLink(int from, int to, int level)
+    {
+        int[] list = links[from][level];
+        int max = list.length - 1;
+        int count = list[0];
+        for (int i = 1; i <= count; i++)
+            if (list[i] == to)
+                return;
+        if (count < max)
+        {
+            list[count + 1] = to;
+            list[0] = count + 1;
+            return;
+        }
+
+        // Full: choose again among the current neighbours and the new one
+        int[] all = Arrays.copyOfRange(list, 1, count + 2);
+        all[count] = to;
+        float[] d = new float[all.length];
+        for (int i = 0; i < all.length; i++)
+            d[i] = distance(from, all[i]);
+        sortByDistance(all, d);
+        int[] chosen = selectNeighbours(from, all, max);
+        System.arraycopy(chosen, 0, list, 1, chosen.length);
+        list[0] = chosen.length;
+    }
+
+    private static void sortByDistance(int[] ids, float[] d)
+    {
+        // insertion sort: the lists are short
+        for (int i = 1; i < ids.length; i++)
+        {
+            int id = ids[i];
+            float di = d[i];
+            int j = i - 1;
+            while (j >= 0 && d[j] > di)
+            {
+                ids[j + 1] = ids[j];
+                d[j + 1] = d[j];
+                j--;
+            }
+            ids[j + 1] = id;
+            d[j + 1] = di;
+        }
+    }
+
+    /**
+     * Walks a layer from <code>start</code> to the node nearest the query point as long
+     * as that keeps getting closer
+     */
+    private int greedy(float[] point, int offset, int start, int level)
+    {
+        int current = start;
+        float best = features.distanceSquared(current, point, offset);
+        boolean improved = true;
+        while (improved)
+        {
+            improved = false;
+            int[] list = links[current][level];
+            for (int i = 1; i <= list[0]; i++)
+            {
+                float d = features.distanceSquared(list[i], point, offset);
+                if (d < best)
+                {
+                    best = d;
+                    current = list[i];
+                    improved = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Best first search of one layer, leaving the (up to) <code>ef</code> nearest nodes
+     * found in <code>results</code>
+     */
+    private void searchLayer(float[] point, int offset, int start, int ef, int level)
+    {
+        if (++visitStamp == 0)
+        {
+            Arrays.fill(visited, 0);
+            visitStamp = 1;
+        }
+        candidates.clear();
+        results.clear();
+
+        float d = features.distanceSquared(start, point, offset);
+        visited[start] = visitStamp;
+        candidates.push(start, d);
+        results.push(start, d);
+
+        while (candidates.size() > 0)
+        {
+            float nearest = candidates.topDistance();
+            if (results.size() >= ef && nearest > results.topDistance())
+                break;
+            int current = candidates.pop();
+            int[] list = links[current][level];
+            for (int i = 1; i <= list[0]; i++)
+            {
+                int neighbour = list[i];
+                if (visited[neighbour] == visitStamp)
+                    continue;
+                visited[neighbour] = visitStamp;
+                float dn = features.distanceSquared(neighbour, point, offset);
+                if (results.size() < ef || dn < results.topDistance())
+                {
+                    candidates.push(neighbour, dn);
+                    results.push(neighbour, dn);
+                    if (results.size() > ef)
+                        results.pop();
+                }
+            }
+        }
+    }
+
+    private void search(int row, int ef)
+    {
+        float[] data = features.getData();
+        int offset = row * dimensions;
+        int nearest = entryPoint;
+        for (int l = topLevel; l > 0; l--)
+            nearest = greedy(data, offset, nearest, l);
+        searchLayer(data, offset, nearest, ef, 0);
+    }
+
+    /**
+     * Finds (approximately) the rows in the index nearest to a given row
+     *
+     * @param row any row of the feature matrix, which need not be in the index
+     * @param k   the number of rows to find
+     * @return up to <code>k</code> rows, nearest first, not including <code>row</code>
+     */
+    int[] nearest(int row, int k)
+    {
+        if (size == 0)
+            return new int[0];
+        search(row, Math.max(EF_SEARCH, k + 1));
+        int[] found = results.drainAscending();
+        int[] out = new int[Math.min(k, found.length)];
+        int count = 0;
+        for (int i = 0; i < found.length && count < out.length; i++)
+            if (found[i] != row)
+                out[count++] = found[i];
+        return Arrays.copyOf(out, count);
+    }
+
+    /**
+     * Finds (approximately) the rows in the index within a given distance of a row
+     * <p/>
+     * The search is widened until it reaches past the radius, so the cost grows with
+     * the number of rows found.
+     *
+     * @param row    any row of the feature matrix, which need not be in the index
+     * @param radius the largest (normalised) distance to include
+     * @return the rows found, nearest first, not including <code>row</code>
+     */
+    int[] within(int row, float radius)
+    {
+        if (size == 0)
+            return new int[0];
+        float limit = radius * radius;
+        int ef = EF_SEARCH;
+        while (true)
+        {
+            search(row, ef);
+            boolean reachedPast = results.size() < ef || results.topDistance() > limit;
+            int[] found = results.drainAscending();
+            if (reachedPast || ef >= size)
+            {
+                int count = 0;
+                for (int i = 0; i < found.length; i++)
+                    if (found[i] != row && distance(found[i], row) <= limit)
+                        found[count++] = found[i];
+                return Arrays.copyOf(found, count);
+            }
+            ef *= 2;
+        }
+    }
+
+    /**
+     * A binary heap of (row, distance) pairs, ordered with the nearest at the top, or the
+     * farthest if <code>farthestFirst</code>
+     */
+    private static class Heap
+    {
+        private final boolean farthestFirst;
+        private int[] ids = new int[64];
+        private float[] distances = new float[64];
+        private int size = 0;
+
+        Heap(boolean farthestFirst)
+        {
+            this.farthestFirst = farthestFirst;
+        }
+
+        int size()
+        {
+            return size;
+        }
+
+        void clear()
+        {
+            size = 0;
+        }
+
+        float topDistance()
+        {
+            return distances[0];
+        }
+
+        private boolean above(float a, float b)
+        {
+            return farthestFirst ? a > b : a < b;
+        }
+
+        void push(int id, float d)
+        {
+            if (size == ids.length)
+            {
+                ids = Arrays.copyOf(ids, size * 2);
+                distances = Arrays.copyOf(distances, size * 2);
+            }
+            int i = size++;
+            while (i > 0)
+            {
+                int parent = (i - 1) >>> 1;
+                if (!above(d, distances[parent]))
+                    break;
+                ids[i] = ids[parent];
+                distances[i] = distances[parent];
+                i = parent;
+            }
+            ids[i] = id;
+            distances[i] = d;
+        }
+
+        int pop()
+        {
+            int top = ids[0];
+            size--;
+            int id = ids[size];
+            float d = distances[size];
+            int i = 0;
+            while (true)
+            {
+                int child = 2 * i + 1;
+                if (child >= size)
+                    break;
+                if (child + 1 < size && above(distances[child + 1], distances[child]))
+                    child++;
+                if (!above(distances[child], d))
+                    break;
+                ids[i] = ids[child];
+                distances[i] = distances[child];
+                i = child;
+            }
+            ids[i] = id;
+            distances[i] = d;
+            return top;
+        }
+
+        /**
+         * Empties a farthest first heap
+         *
+         * @return the rows it held, nearest first
+         */
+        int[] drainAscending()
+        {
+            int[] out = new int[size];
+            for (int i = size - 1; i >= 0; i--)
+                out[i] = pop();
+            return out;
+        }
+    }
+}
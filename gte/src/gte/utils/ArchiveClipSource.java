@@ -0,0 +1,76 @@
+package gte.utils;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Clips read from the entries of an archive. The archive is scanned for the entries a
+ * clip source uses (see <code>ClipSource.entryKey</code>) the first time one is needed.
+ */
+abstract class ArchiveClipSource extends ClipSource
+{
+    final File archive;
+    private boolean scanned = false;
+
+    ArchiveClipSource(File archive)
+    {
+        this.archive = archive;
+    }
+
+    /**
+     * Builds the entry index of the archive
+     */
+    abstract void scan()
+            throws IOException;
+
+    /**
+     * @return the contents of an entry, or <code>null</code> if the archive has no entry
+     *         with the given key
+     */
+    abstract byte[] read(String key)
+            throws IOException;
+
+    private synchronized byte[] entry(String key)
+            throws IOException
+    {
+        if (!scanned)
+        {
+            scan();
+            scanned = true;
+        }
+        return read(key);
+    }
+
+    public ComponentCSV readTable()
+            throws IOException
+    {
+        byte[] data = entry(TABLE_NAME);
+        if (data == null)
+            throw new IOException("No " + TABLE_NAME + " in \"" + archive + "\"");
+        return ComponentCSV.parse(ByteBuffer.wrap(data));
+    }
+
+    ClipStore openStore(String pageName)
+            throws IOException
+    {
+        byte[] data = entry(pageName + ".clips");
+        return data == null ? null : ClipStore.wrap(ByteBuffer.wrap(data));
+    }
+
+    BufferedImage readClipFile(String pageName, String clipName)
+            throws IOException
+    {
+        byte[] data = entry(pageName + "/" + clipName);
+        if (data == null)
+            return null;
+        BufferedImage clip = ImageIO.read(new ByteArrayInputStream(data));
+        if (clip == null)
+            throw new IOException("No image reader for \"" + clipName + "\" in \"" + archive + "\"");
+        return clip;
+    }
+}
@@ -0,0 +1,171 @@
+package gte.utils;
+
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Where the connected component CSV file and the image clips of a set of pages are read
+ * from: a directory such as <code>gte/data/sample_ccs</code>, or a tar.gz or zip archive
+ * of one, such as <code>gte/data/sample_ccs.tgz</code>
+ * <p/>
+ * Whatever the source, it holds a <code>moments.csv</code> file and, for each page
+ * <code>N</code>, either a <code>page-NNNN.clips</code> clip store (see
+ * <code>ClipStore</code>) or a <code>page-NNNN</code> directory of individual clip files.
+ * Archives may have these under a top level directory. Decoded clips are cached, up to
+ * <code>CACHE_PIXELS</code> pixels, so reloading a page does not decode its clips again.
+ * Clips too large to share the cache with many others, such as page borders, are not
+ * cached.
+ */
+public abstract class ClipSource implements Closeable
+{
+    static final String TABLE_NAME = "moments.csv";
+
+    private static final int CACHE_PIXELS = 1 << 24;
+
+    /** the clip store of each page, or <code>null</code> if the page has none */
+    private final HashMap<Integer, ClipStore> stores = new HashMap<Integer, ClipStore>();
+
+    /** decoded clips, keyed by page directory and clip name, least recently used first */
+    private final LinkedHashMap<String, BufferedImage> cache = new LinkedHashMap<String, BufferedImage>(256, 0.75f, true);
+    private long cachedPixels = 0;
+
+    /**
+     * Opens a clip source
+     *
+     * @param f a directory, a CSV file in such a directory, or a <code>.zip</code>,
+     *          <code>.tgz</code> or <code>.tar.gz</code> archive
+     * @throws IOException if an archive cannot be opened
+     */
+    public static ClipSource open(File f)
+            throws IOException
+    {
+        String name = f.getName().toLowerCase();
+        if (f.isDirectory())
+            return new DirectoryClipSource(f, new File(f, TABLE_NAME));
+        if (name.endsWith(".zip"))
+            return new ZipClipSource(f);
+        if (name.endsWith(".tgz") || name.endsWith(".tar.gz"))
+            return new TarClipSource(f);
+        return new DirectoryClipSource(f.getAbsoluteFile().getParentFile(), f);
+    }
+
+    static String pageName(int page)
+    {
+        return String.format("page-%04d", page);
+    }
+
+    /**
+     * Reads the connected component CSV file
+     *
+     * @throws IOException if there is no CSV file or it cannot be read
+     */
+    public abstract ComponentCSV readTable()
+            throws IOException;
+
+    /**
+     * @return the clip store of a page, or <code>null</code> if it has none
+     */
+    abstract ClipStore openStore(String pageName)
+            throws IOException;
+
+    /**
+     * @return an individual clip file of a page, decoded, or <code>null</code> if there is
+     *         no such file
+     */
+    abstract BufferedImage readClipFile(String pageName, String clipName)
+            throws IOException;
+
+    /**
+     * Reads the image clip of a connected component
+     *
+     * @param page     the page number, as given in the CSV file
+     * @param clipName the clip file name, as given in the <code>cc_image</code> column
+     * @return the clip, which may be shared and must not be modified, or <code>null</code> if
+     *         there is none
+     * @throws IOException if the clip cannot be read
+     */
+    public synchronized BufferedImage getClip(int page, String clipName)
+            throws IOException
+    {
+        String pageName = pageName(page);
+        String key = pageName + "/" + clipName;
+        BufferedImage clip = cache.get(key);
+        if (clip == null)
+        {
+            if (!stores.containsKey(page))
+                stores.put(page, openStore(pageName));
+            ClipStore store = stores.get(page);
+            int id = ClipStore.componentNumber(clipName);
+            if (store != null && store.contains(id))
+                clip = store.getClip(id);
+            else
+                clip = readClipFile(pageName, clipName);
+            if (clip == null)
+                return null;
+            cache(key, clip);
+        }
+        return clip;
+    }
+
+    private void cache(String key, BufferedImage clip)
+    {
+        if (pixels(clip) > CACHE_PIXELS / 16)
+            return;
+        cache.put(key, clip);
+        cachedPixels += pixels(clip);
+        Iterator<BufferedImage> eldest = cache.values().iterator();
+        while (cachedPixels > CACHE_PIXELS)
+        {
+            cachedPixels -= pixels(eldest.next());
+            eldest.remove();
+        }
+    }
+
+    private static long pixels(BufferedImage image)
+    {
+        return (long) image.getWidth() * image.getHeight();
+    }
+
+    public synchronized void close()
+            throws IOException
+    {
+        stores.clear();
+        cache.clear();
+        cachedPixels = 0;
+    }
+
+    /**
+     * Archive entries are looked up by the last part of their path that identifies them:
+     * <code>moments.csv</code>, <code>page-NNNN.clips</code> or
+     * <code>page-NNNN/clip name</code>, whatever directory they are under
+     *
+     * @return the key of an entry, or <code>null</code> if it is not one a clip source uses
+     */
+    static String entryKey(String path)
+    {
+        String[] parts = path.replace('\\', '/').split("/");
+        String name = parts[parts.length - 1];
+        if (name.equals(TABLE_NAME) || name.matches("page-\\d+\\.clips"))
+            return name;
+        if (parts.length > 1 && parts[parts.length - 2].matches("page-\\d+")
+                && ClipStore.componentNumber(name) >= 0)
+            return parts[parts.length - 2] + "/" + name;
+        return null;
+    }
+
+    /**
+     * Adds an entry to an index, keeping the first entry found for each key
+     */
+    static <E> void index(Map<String, E> index, String path, E entry)
+    {
+        String key = entryKey(path);
+        if (key != null && !index.containsKey(key))
+            index.put(key, entry);
+    }
+}
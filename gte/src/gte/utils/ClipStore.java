@@ -0,0 +1,248 @@
+package gte.utils;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.imageio.ImageIO;
+
+/**
+ * The image clips of the connected components of a page, packed into a single file
+ * <p/>
+ * Each clip is stored as a 1-bit mask of its foreground pixels, bit-packed row by row.
+ * Clips are identified by their connected component number, i.e. the <code>NNNNN</code>
+ * in the <code>cNNNNN_xXXXX_yYYYY.tif</code> names of the individual clip files. The
+ * file is memory mapped when opened and a clip is only decoded, into a small image of
+ * its own, when it is asked for.
+ * <p/>
+ * File layout (big endian):
+ * <pre>
+ * "GTECLIPS"   magic
+ * int          version (1)
+ * int          n, one more than the largest component number
+ * n entries    int x, int y, int w, int h, long offset (-1 if there is no clip)
+ * clip data    for each clip, h rows of (w + 7) / 8 bytes, most significant bit first
+ * </pre>
+ */
+public class ClipStore
+{
+    private static final byte[] MAGIC = "GTECLIPS".getBytes(StandardCharsets.US_ASCII);
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = MAGIC.length + 8;
+    private static final int ENTRY_SIZE = 24;
+
+    private static final Pattern CLIP_NAME = Pattern.compile("c(\\d+)_x(\\d+)_y(\\d+)\\.tiff?");
+
+    private static final int FOREGROUND = 0xff000000;
+
+    private final ByteBuffer buffer;
+    private final int size;
+
+    private ClipStore(ByteBuffer buffer)
+            throws IOException
+    {
+        this.buffer = buffer;
+        byte[] magic = new byte[MAGIC.length];
+        for (int i = 0; i < magic.length; i++)
+            magic[i] = buffer.get(i);
+        if (!Arrays.equals(magic, MAGIC) || buffer.getInt(MAGIC.length) != VERSION)
+            throw new IOException("Not a clip store");
+        size = buffer.getInt(MAGIC.length + 4);
+        if (size < 0 || HEADER_SIZE + (long) size * ENTRY_SIZE > buffer.limit())
+            throw new IOException("Truncated clip store");
+    }
+
+    /**
+     * Opens a clip store file by memory mapping it
+     *
+     * @throws IOException if the file cannot be read or is not a clip store
+     */
+    public static ClipStore open(File f)
+            throws IOException
+    {
+        FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ);
+        try
+        {
+            return new ClipStore(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+        finally
+        {
+            // The mapping stays valid after the channel is closed
+            channel.close();
+        }
+    }
+
+    /**
+     * Wraps a clip store already in memory
+     *
+     * @throws IOException if the buffer does not hold a clip store
+     */
+    public static ClipStore wrap(ByteBuffer buffer)
+            throws IOException
+    {
+        return new ClipStore(buffer);
+    }
+
+    /**
+     * Extracts the connected component number from the name of a clip file
+     *
+     * @return the number, or -1 if the name is not of the form <code>cNNNNN_xXXXX_yYYYY.tif</code>
+     */
+    public static int componentNumber(String clipName)
+    {
+        Matcher m = CLIP_NAME.matcher(clipName);
+        return m.matches() ? Integer.parseInt(m.group(1)) : -1;
+    }
+
+    private int entry(int id)
+    {
+        return HEADER_SIZE + id * ENTRY_SIZE;
+    }
+
+    public boolean contains(int id)
+    {
+        return id >= 0 && id < size && buffer.getLong(entry(id) + 16) >= 0;
+    }
+
+    /**
+     * Decodes a clip into an image with an opaque black foreground on a transparent
+     * background
+     *
+     * @param id the connected component number of the clip
+     * @return the image, or <code>null</code> if there is no such clip
+     */
+    public BufferedImage getClip(int id)
+    {
+        if (!contains(id))
+            return null;
+        int e = entry(id);
+        int w = buffer.getInt(e + 8);
+        int h = buffer.getInt(e + 12);
+        int offset = (int) buffer.getLong(e + 16);
+        int stride = (w + 7) / 8;
+
+        BufferedImage image = new BufferedImage(Math.max(w, 1), Math.max(h, 1), BufferedImage.TYPE_INT_ARGB);
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        for (int y = 0; y < h; y++)
+        {
+            int row = offset + y * stride;
+            for (int bx = 0; bx < stride; bx++)
+            {
+                int bits = buffer.get(row + bx) & 0xff;
+                if (bits == 0)
+                    continue;
+                int x0 = bx * 8;
+                for (int b = 0; b < 8 && x0 + b < w; b++)
+                    if ((bits & (0x80 >>> b)) != 0)
+                        pixels[y * w + x0 + b] = FOREGROUND;
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Packs the individual clip files of one page into a clip store
+     *
+     * @param clipDirectory the directory holding the <code>cNNNNN_xXXXX_yYYYY.tif</code> files of the page
+     * @param out           the clip store file to write
+     * @return the number of clips packed
+     * @throws IOException if a clip cannot be read or the store cannot be written
+     */
+    public static int pack(File clipDirectory, File out)
+            throws IOException
+    {
+        File[] files = clipDirectory.listFiles();
+        if (files == null)
+            throw new IOException("Cannot list \"" + clipDirectory + "\"");
+
+        int n = 0;
+        for (File f : files)
+            n = Math.max(n, componentNumber(f.getName()) + 1);
+
+        int[] x = new int[n];
+        int[] y = new int[n];
+        BufferedImage[] clips = new BufferedImage[n];
+        int count = 0;
+        for (File f : files)
+        {
+            Matcher m = CLIP_NAME.matcher(f.getName());
+            if (!m.matches())
+                continue;
+            int id = Integer.parseInt(m.group(1));
+            BufferedImage clip = ImageIO.read(f);
+            if (clip == null)
+                throw new IOException("No image reader for \"" + f + "\"");
+            x[id] = Integer.parseInt(m.group(2));
+            y[id] = Integer.parseInt(m.group(3));
+            clips[id] = clip;
+            count++;
+        }
+
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(out), 1 << 16));
+        try
+        {
+            data.write(MAGIC);
+            data.writeInt(VERSION);
+            data.writeInt(n);
+            long offset = HEADER_SIZE + (long) n * ENTRY_SIZE;
+            for (int id = 0; id < n; id++)
+            {
+                BufferedImage clip = clips[id];
+                data.writeInt(x[id]);
+                data.writeInt(y[id]);
+                data.writeInt(clip == null ? 0 : clip.getWidth());
+                data.writeInt(clip == null ? 0 : clip.getHeight());
+                data.writeLong(clip == null ? -1 : offset);
+                if (clip != null)
+                    offset += (long) clip.getHeight() * ((clip.getWidth() + 7) / 8);
+            }
+            if (offset > Integer.MAX_VALUE)
+                throw new IOException("Too much clip data for one store");
+
+            for (BufferedImage clip : clips)
+            {
+                if (clip == null)
+                    continue;
+                int w = clip.getWidth();
+                int[] rgb = new int[w];
+                byte[] row = new byte[(w + 7) / 8];
+                for (int yy = 0; yy < clip.getHeight(); yy++)
+                {
+                    clip.getRGB(0, yy, w, 1, rgb, 0, w);
+                    Arrays.fill(row, (byte) 0);
+                    for (int xx = 0; xx < w; xx++)
+                        if (isForeground(rgb[xx]))
+                            row[xx >> 3] |= 0x80 >>> (xx & 7);
+                    data.write(row);
+                }
+            }
+        }
+        finally
+        {
+            data.close();
+        }
+        return count;
+    }
+
+    /**
+     * A pixel is foreground if it is opaque and dark: clips have a black foreground on a
+     * transparent (or, without an alpha channel, white) background
+     */
+    private static boolean isForeground(int argb)
+    {
+        int alpha = argb >>> 24;
+        int grey = (((argb >> 16) & 0xff) + ((argb >> 8) & 0xff) + (argb & 0xff)) / 3;
+        return alpha >= 128 && grey < 128;
+    }
+}
@@ -0,0 +1,47 @@
+package gte.utils;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Clips read from an extracted connected component directory
+ */
+class DirectoryClipSource extends ClipSource
+{
+    private final File directory;
+    private final File tableFile;
+
+    DirectoryClipSource(File directory, File tableFile)
+    {
+        this.directory = directory;
+        this.tableFile = tableFile;
+    }
+
+    public ComponentCSV readTable()
+            throws IOException
+    {
+        return ComponentCSV.read(tableFile);
+    }
+
+    ClipStore openStore(String pageName)
+            throws IOException
+    {
+        File packed = new File(directory, pageName + ".clips");
+        return packed.isFile() ? ClipStore.open(packed) : null;
+    }
+
+    BufferedImage readClipFile(String pageName, String clipName)
+            throws IOException
+    {
+        File f = new File(new File(directory, pageName), clipName);
+        if (!f.isFile())
+            return null;
+        BufferedImage clip = ImageIO.read(f);
+        if (clip == null)
+            throw new IOException("No image reader for \"" + f + "\"");
+        return clip;
+    }
+}
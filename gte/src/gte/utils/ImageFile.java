@@ -7,14 +7,25 @@ package gte.utils;
  */
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
 import javax.imageio.ImageReader;
 import javax.imageio.stream.ImageInputStream;
+import java.awt.Rectangle;
 import java.awt.color.ColorSpace;
 import java.awt.image.BufferedImage;
 import java.awt.image.ColorConvertOp;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.IndexColorModel;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.awt.image.Raster;
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 
 
 /**
@@ -25,15 +36,79 @@ import java.util.Iterator;
 
 /**
  * Encapsulates an image file containing possibly multiple images
+ * <p/>
+ * Files are opened through <code>open</code>, which shares one <code>ImageFile</code> per
+ * file between all its users, and must be closed by each of them when they are done
+ * with it. The number of images, which for a TIFF file means reading through the whole
+ * file, and the size of each image are found once and kept for as long as the file is
+ * unchanged, even after the last user has closed it.
+ * <p/>
+ * Images may be read from several threads at once: each read has an
+ * <code>ImageReader</code> of its own, with its own stream, from a pool of at most
+ * <code>MAX_READERS</code> readers per file. The readers are disposed of when the last
+ * user closes the file.
  */
-public class ImageFile
+public class ImageFile implements Closeable
 {
-    private ImageReader ir;
-    private int numImages;
-    private File file;
+    private static final int MAX_READERS = 4;
+
+    /** how many closed files are kept, with their image counts and sizes, for reopening */
+    private static final int MAX_POOLED = 16;
+
+    /** the open and recently closed files, by canonical file, least recently opened first */
+    private static final LinkedHashMap<File, ImageFile> pool = new LinkedHashMap<File, ImageFile>(16, 0.75f, true);
+
+    private final File file;
+    private final long length;
+    private final long lastModified;
+    private final int numImages;
+
+    /** the size of each image, or 0 until it is first asked for */
+    private final int[] widths;
+    private final int[] heights;
+
+    private final ArrayDeque<ImageReader> idleReaders = new ArrayDeque<ImageReader>();
+    private int readers = 0;
+    private int users = 1;
+
+    /**
+     * Opens a file, or shares the <code>ImageFile</code> already open on it, if the file
+     * has not changed since it was opened
+     *
+     * @param f the file to open
+     * @return the image file, to be closed when it is no longer needed
+     * @throws IOException                   if f is not readable or does not exist
+     * @throws UnsupportedImageTypeException if no suitable image reader can be found for this file or if the
+     *                                       file does not contain a correctly formatted image
+     */
+    public static ImageFile open(File f)
+            throws IOException, UnsupportedImageTypeException
+    {
+        File key = f.getCanonicalFile();
+        synchronized (pool)
+        {
+            ImageFile imageFile = pool.get(key);
+            if (imageFile != null && imageFile.length == key.length() && imageFile.lastModified == key.lastModified())
+            {
+                synchronized (imageFile)
+                {
+                    imageFile.users++;
+                }
+                return imageFile;
+            }
+            imageFile = new ImageFile(key);
+            pool.put(key, imageFile);
+            Iterator<ImageFile> eldest = pool.values().iterator();
+            while (pool.size() > MAX_POOLED && eldest.hasNext())
+                if (eldest.next().isClosed())
+                    eldest.remove();
+            return imageFile;
+        }
+    }
 
     /**
-     * Opens a File object and intialises an project.utils.ImageFile object from it
+     * Opens a File object and intialises an project.utils.ImageFile object from it. The object
+     * is not shared: <code>open</code> is usually better.
      *
      * @param f the File object to create the project.utils.ImageFile from
      * @throws IOException                   if f is not readable or does not exist
@@ -43,24 +118,123 @@ public class ImageFile
     public ImageFile(File f)
             throws IOException, UnsupportedImageTypeException
     {
-        ImageInputStream iis;
-
-
         if (!f.exists() || !f.canRead())
             throw new IOException("File: \"" + f.getName() + "\" does not exist or is unreadable");
-        iis = ImageIO.createImageInputStream(f);
+        file = f;
+        length = f.length();
+        lastModified = f.lastModified();
+        ImageReader ir = createReader();
+        readers++;
+        try
+        {
+            numImages = ir.getNumImages(true);
+        }
+        catch (IOException e)
+        {
+            disposeReader(ir);
+            throw e;
+        }
+        widths = new int[numImages];
+        heights = new int[numImages];
+        idleReaders.push(ir);
+    }
+
+    private ImageReader createReader()
+            throws IOException, UnsupportedImageTypeException
+    {
+        ImageInputStream iis = ImageIO.createImageInputStream(file);
+        if (iis == null)
+            throw new IOException("File: \"" + file.getName() + "\" cannot be opened");
         Iterator<ImageReader> irit = ImageIO.getImageReaders(iis);
         if (!irit.hasNext())
         {
             iis.close();
             throw new UnsupportedImageTypeException(
-                    "File: \"" + f.getName() + "\" does not contain an image format that this program can handle"
+                    "File: \"" + file.getName() + "\" does not contain an image format that this program can handle"
             );
         }
-        file = f;
-        ir = (ImageReader) irit.next();
+        ImageReader ir = irit.next();
         ir.setInput(iis, false);
-        numImages = ir.getNumImages(true);
+        return ir;
+    }
+
+    private static void disposeReader(ImageReader ir)
+    {
+        Object input = ir.getInput();
+        ir.dispose();
+        if (input instanceof ImageInputStream)
+        {
+            try
+            {
+                ((ImageInputStream) input).close();
+            }
+            catch (IOException ignored)
+            {
+            }
+        }
+    }
+
+    /**
+     * Takes an idle reader, opening another if there are fewer than
+     * <code>MAX_READERS</code>, or else waiting for one to be given back
+     */
+    private ImageReader takeReader()
+            throws IOException
+    {
+        synchronized (this)
+        {
+            while (true)
+            {
+                if (users == 0)
+                    throw new IOException("Attempt to read image when image file has already been closed");
+                if (!idleReaders.isEmpty())
+                    return idleReaders.pop();
+                if (readers < MAX_READERS)
+                    break;
+                try
+                {
+                    wait();
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting to read " + file);
+                }
+            }
+            readers++;
+        }
+        try
+        {
+            return createReader();
+        }
+        catch (UnsupportedImageTypeException e)
+        {
+            // the file has changed since it was opened
+            giveBack(null);
+            throw new IOException(e.getMessage());
+        }
+        catch (IOException e)
+        {
+            giveBack(null);
+            throw e;
+        }
+    }
+
+    /**
+     * Gives back a reader taken with <code>takeReader</code>, or <code>null</code> if none
+     * could be opened
+     */
+    private synchronized void giveBack(ImageReader ir)
+    {
+        if (ir != null && users > 0)
+            idleReaders.push(ir);
+        else
+        {
+            readers--;
+            if (ir != null)
+                disposeReader(ir);
+        }
+        notifyAll();
     }
 
     /**
@@ -98,36 +272,36 @@ public class ImageFile
     }
 
     /**
-     * releases resources held by this object (e.g. open file descriptors etc.)
+     * Releases this user's hold on the file. Once every user has closed it, its readers,
+     * and so its open file descriptors, are released, though reads in progress may finish.
      */
-    public void dispose()
+    public synchronized void close()
     {
-        if (ir != null)
+        if (users == 0)
+            return;
+        users--;
+        if (users == 0)
         {
-            ir.dispose();
-            ir = null;
+            while (!idleReaders.isEmpty())
+            {
+                disposeReader(idleReaders.pop());
+                readers--;
+            }
+            notifyAll();
         }
     }
 
     /**
-     * Make sure all resources are recovered when this object is discarded
+     * The same as <code>close</code>
      */
-    protected void finalize()
+    public void dispose()
     {
-        try
-        {
-            dispose();
-        }
-        finally
-        {
-            try
-            {
-                super.finalize();
-            }
-            catch (Throwable ignored)
-            {
-            }
-        }
+        close();
+    }
+
+    private synchronized boolean isClosed()
+    {
+        return users == 0;
     }
 
     /**
@@ -142,18 +316,55 @@ public class ImageFile
     }
 
     /**
-     * Reads an image from an project.utils
-     *
-     * @param imageNo the index of the image to read: in the range <code>[0..getNumImages()-1]</code>
-     * @return the requested image
-     * @throws IOException if the <code>project.utils.ImageFile</code> has already been disposed of
-     *                     or if there is an error in reading the image
+     * @return the width of an image, read from its header when first asked for
+     * @throws IOException if the file has been closed or the header cannot be read
      */
-    public BufferedImage getBufferedImage(int imageNo)
+    public int getWidth(int imageNo)
+            throws IOException
+    {
+        readSize(imageNo);
+        return widths[imageNo];
+    }
+
+    /**
+     * @return the height of an image, read from its header when first asked for
+     * @throws IOException if the file has been closed or the header cannot be read
+     */
+    public int getHeight(int imageNo)
+            throws IOException
+    {
+        readSize(imageNo);
+        return heights[imageNo];
+    }
+
+    private void readSize(int imageNo)
             throws IOException
     {
-        if (ir == null)
-            throw new IOException("Attempt to read image when image reader has already been disposed of");
+        checkImageNo(imageNo);
+        synchronized (this)
+        {
+            if (widths[imageNo] > 0)
+                return;
+        }
+        ImageReader ir = takeReader();
+        try
+        {
+            int width = ir.getWidth(imageNo);
+            int height = ir.getHeight(imageNo);
+            synchronized (this)
+            {
+                widths[imageNo] = width;
+                heights[imageNo] = height;
+            }
+        }
+        finally
+        {
+            giveBack(ir);
+        }
+    }
+
+    private void checkImageNo(int imageNo)
+    {
         if (imageNo < 0 || imageNo >= numImages)
         {
             throw new IndexOutOfBoundsException(
@@ -161,15 +372,116 @@ public class ImageFile
                     (numImages == 0 ? "no images" : numImages == 1 ? "only image 0" : "images 0.." + (numImages - 1))
             );
         }
+    }
 
-        BufferedImage bi = ir.read(imageNo);
+    /**
+     * Reads an image from an project.utils
+     *
+     * @param imageNo the index of the image to read: in the range <code>[0..getNumImages()-1]</code>
+     * @return the requested image, as <code>convertForDisplay</code> returns it
+     * @throws IOException if the <code>project.utils.ImageFile</code> has already been closed
+     *                     or if there is an error in reading the image
+     */
+    public BufferedImage getBufferedImage(int imageNo)
+            throws IOException
+    {
+        return getBufferedImage(imageNo, null, 1);
+    }
 
-        bi = convertToIntRGB(bi);
+    /**
+     * Reads part of an image, possibly at a reduced resolution, decoding no more of it than
+     * the image format requires
+     *
+     * @param imageNo     the index of the image to read: in the range <code>[0..getNumImages()-1]</code>
+     * @param region      the part of the image to read, in image coordinates, or <code>null</code>
+     *                    for the whole image
+     * @param subsampling read every <code>subsampling</code>th pixel of every
+     *                    <code>subsampling</code>th row, so 1 for full resolution
+     * @return the requested part of the image, <code>subsampling</code> times smaller than
+     *         the region
+     * @throws IOException if the <code>project.utils.ImageFile</code> has already been closed
+     *                     or if there is an error in reading the image
+     */
+    public BufferedImage getBufferedImage(int imageNo, Rectangle region, int subsampling)
+            throws IOException
+    {
+        checkImageNo(imageNo);
+        if (subsampling < 1)
+            throw new IllegalArgumentException("Subsampling must be at least 1, not " + subsampling);
+
+        BufferedImage bi;
+        ImageReader ir = takeReader();
+        try
+        {
+            ImageReadParam param = ir.getDefaultReadParam();
+            if (region != null)
+                param.setSourceRegion(region);
+            if (subsampling > 1)
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+            bi = ir.read(imageNo, param);
+        }
+        finally
+        {
+            giveBack(ir);
+        }
+
+        bi = convertForDisplay(bi);
 
         return bi;
 
     }
 
+    /**
+     * Utility method to return a version of an image that is quick to draw and small to
+     * keep: bilevel images, such as scanned pages, are kept packed eight pixels to a byte as
+     * <code>TYPE_BYTE_BINARY</code> images, with the colours of their two values, and other
+     * images are converted by <code>convertToIntRGB</code>
+     *
+     * @param bi the input image
+     * @return the image to display
+     */
+    public static BufferedImage convertForDisplay(BufferedImage bi)
+    {
+        if (!isBilevel(bi))
+            return convertToIntRGB(bi);
+        if (bi.getType() == BufferedImage.TYPE_BYTE_BINARY && bi.getColorModel().getPixelSize() == 1)
+            return bi;
+        int[] colours = bilevelColours(bi);
+        byte[][] rgb = new byte[3][2];
+        for (int i = 0; i < 2; i++)
+        {
+            rgb[0][i] = (byte) (colours[i] >> 16);
+            rgb[1][i] = (byte) (colours[i] >> 8);
+            rgb[2][i] = (byte) colours[i];
+        }
+        BufferedImage packed = new BufferedImage(bi.getWidth(), bi.getHeight(), BufferedImage.TYPE_BYTE_BINARY,
+                new IndexColorModel(1, 2, rgb[0], rgb[1], rgb[2]));
+        packed.getRaster().setRect(-bi.getMinX(), -bi.getMinY(), bi.getRaster());
+        return packed;
+    }
+
+    /**
+     * @return whether an image has one bit per pixel
+     */
+    private static boolean isBilevel(BufferedImage bi)
+    {
+        ColorModel cm = bi.getColorModel();
+        return bi.getRaster().getNumBands() == 1 && bi.getSampleModel().getSampleSize(0) == 1
+               && (cm instanceof IndexColorModel || cm.getColorSpace().getType() == ColorSpace.TYPE_GRAY);
+    }
+
+    /**
+     * @return the RGB colours of the values 0 and 1 of a bilevel image
+     */
+    private static int[] bilevelColours(BufferedImage bi)
+    {
+        ColorModel cm = bi.getColorModel();
+        if (!(cm instanceof IndexColorModel))
+            return new int[]{0x000000, 0xffffff};
+        IndexColorModel icm = (IndexColorModel) cm;
+        int zero = icm.getRGB(0) & 0xffffff;
+        return new int[]{zero, icm.getMapSize() > 1 ? icm.getRGB(1) & 0xffffff : zero};
+    }
 
     /**
      * Utility method to return a TYPE_INT_RGB RGB version of a buffered image
@@ -184,6 +496,11 @@ public class ImageFile
             return bi;
 
         BufferedImage argbImage = new BufferedImage(bi.getWidth(), bi.getHeight(), BufferedImage.TYPE_INT_RGB);
+        if (isBilevel(bi))
+        {
+            unpackBilevel(bi, ((DataBufferInt) argbImage.getRaster().getDataBuffer()).getData());
+            return argbImage;
+        }
         ColorConvertOp cco = new ColorConvertOp(
                 bi.getColorModel().getColorSpace(),
                 ColorSpace.getInstance(ColorSpace.CS_sRGB),
@@ -192,4 +509,43 @@ public class ImageFile
         cco.filter(bi, argbImage);
         return argbImage;
     }
+
+    /**
+     * Expands a bilevel image into RGB pixels, straight from its packed bits where it has
+     * them rather than through a colour conversion
+     */
+    private static void unpackBilevel(BufferedImage bi, int[] out)
+    {
+        int[] colours = bilevelColours(bi);
+        int w = bi.getWidth();
+        int h = bi.getHeight();
+        Raster raster = bi.getRaster();
+        if (raster.getSampleModel() instanceof MultiPixelPackedSampleModel
+            && raster.getDataBuffer() instanceof DataBufferByte)
+        {
+            MultiPixelPackedSampleModel sm = (MultiPixelPackedSampleModel) raster.getSampleModel();
+            byte[] data = ((DataBufferByte) raster.getDataBuffer()).getData();
+            int x0 = raster.getMinX() - raster.getSampleModelTranslateX();
+            int y0 = raster.getMinY() - raster.getSampleModelTranslateY();
+            int base = raster.getDataBuffer().getOffset();
+            for (int y = 0; y < h; y++)
+            {
+                int line = base + sm.getOffset(x0, y0 + y);
+                int bit = sm.getBitOffset(x0);
+                int o = y * w;
+                for (int x = 0; x < w; x++, bit++)
+                    out[o + x] = colours[(data[line + (bit >> 3)] >> (7 - (bit & 7))) & 1];
+            }
+        }
+        else
+        {
+            int[] samples = new int[w];
+            for (int y = 0; y < h; y++)
+            {
+                raster.getSamples(raster.getMinX(), raster.getMinY() + y, w, 1, 0, samples);
+                for (int x = 0; x < w; x++)
+                    out[y * w + x] = colours[samples[x] & 1];
+            }
+        }
+    }
 }
@@ -0,0 +1,658 @@
+package gte.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The ground truth labels of the connected components of a set of pages, kept as an
+ * append-only journal
+ * <p/>
+ * The journal is a JSON Lines file: each line is one record such as
+ * <code>{"page":3,"cc":318,"label":"e"}</code>, giving the label of a component, identified
+ * by its page and connected component number, or <code>"label":null</code> if its label
+ * was removed. A set of components labelled together is one record, with a list of
+ * [page, number] pairs, such as <code>{"cc":[[3,318],[3,320]],"label":"e"}</code>. The
+ * last record for a component wins.
+ * <p/>
+ * The file is opened once. Records are added to a buffer, which is written and forced to
+ * disk (group commit) every <code>FLUSH_MILLIS</code> milliseconds, when it grows past
+ * <code>MAX_BUFFERED</code> bytes, on <code>sync</code> and <code>close</code>, and when the
+ * program exits. If the program dies while a record is being written, the partial last
+ * line is dropped when the journal is next opened. A failed write is reported by the next
+ * call that adds or syncs records.
+ * <p/>
+ * <code>export</code> compacts the journal into a single JSON array holding the current
+ * label of each labelled component, for use outside <code>gte</code>.
+ */
+public class LabelJournal implements Closeable
+{
+    public static final String JOURNAL_NAME = "labels.jsonl";
+
+    private static final long FLUSH_MILLIS = 200;
+    private static final int MAX_BUFFERED = 1 << 16;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final File file;
+    private final FileChannel channel;
+
+    /** the current label of each component, by <code>key(page, component)</code> */
+    private final HashMap<Long, String> labels = new HashMap<Long, String>();
+
+    /** records added but not yet written */
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+    /** held while writing, so that buffers are written in the order they were filled */
+    private final Object writeLock = new Object();
+
+    private IOException failure;
+    private int skippedLines = 0;
+    private boolean closed = false;
+
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+    {
+        public Thread newThread(Runnable r)
+        {
+            Thread t = new Thread(r, "label journal");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    private final Thread shutdownHook = new Thread("label journal shutdown")
+    {
+        public void run()
+        {
+            try
+            {
+                flush();
+            }
+            catch (IOException ignored)
+            {
+            }
+        }
+    };
+
+    /**
+     * @param source a CSV file, the directory holding it, or an archive of that directory
+     *               (see <code>ClipSource</code>)
+     * @return where the labels of the components of <code>source</code> are kept: in the
+     *         directory of the CSV file, or next to the archive
+     */
+    public static File journalFor(File source)
+    {
+        File f = source.getAbsoluteFile();
+        String name = f.getName().toLowerCase();
+        if (f.isDirectory())
+            return new File(f, JOURNAL_NAME);
+        if (name.endsWith(".zip") || name.endsWith(".tgz") || name.endsWith(".tar.gz"))
+            return new File(f.getParentFile(), f.getName().replaceFirst("(?i)(\\.zip|\\.tgz|\\.tar\\.gz)$", "") + "." + JOURNAL_NAME);
+        return new File(f.getParentFile(), JOURNAL_NAME);
+    }
+
+    public static long key(int page, int component)
+    {
+        return (long) page << 32 | component & 0xffffffffL;
+    }
+
+    public static int pageOf(long key)
+    {
+        return (int) (key >> 32);
+    }
+
+    public static int componentOf(long key)
+    {
+        return (int) key;
+    }
+
+    /**
+     * Opens a journal, creating it if it does not exist, and reads the labels in it
+     *
+     * @throws IOException if the journal cannot be read or opened for writing
+     */
+    public LabelJournal(File file)
+            throws IOException
+    {
+        this.file = file;
+        recover();
+        channel = new FileOutputStream(file, true).getChannel();
+        flusher.scheduleWithFixedDelay(new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    flush();
+                }
+                catch (IOException ignored)
+                {
+                    // kept in failure, and reported to whoever next adds a record
+                }
+            }
+        }, FLUSH_MILLIS, FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    /**
+     * Reads the records of the journal file, dropping a partial last line
+     */
+    private void recover()
+            throws IOException
+    {
+        if (!file.exists())
+            return;
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try
+        {
+            byte[] data = new byte[(int) raf.length()];
+            raf.readFully(data);
+            int start = 0;
+            for (int i = 0; i < data.length; i++)
+            {
+                if (data[i] != '\n')
+                    continue;
+                String line = new String(data, start, i - start, UTF8).trim();
+                start = i + 1;
+                if (line.isEmpty())
+                    continue;
+                if (!replay(line))
+                    skippedLines++;
+            }
+            if (start < data.length)
+                raf.setLength(start); // torn write
+        }
+        finally
+        {
+            raf.close();
+        }
+    }
+
+    private boolean replay(String line)
+    {
+        Record r = Record.parse(line);
+        if (r == null)
+            return false;
+        for (int i = 0; i < r.pages.length; i++)
+            set(r.pages[i], r.components[i], r.label);
+        return true;
+    }
+
+    private void set(int page, int component, String label)
+    {
+        if (label == null)
+            labels.remove(key(page, component));
+        else
+            labels.put(key(page, component), label);
+    }
+
+    /**
+     * @return the number of lines that could not be read when the journal was opened
+     */
+    public int getSkippedLines()
+    {
+        return skippedLines;
+    }
+
+    /**
+     * @return the label of a component, or <code>null</code> if it has none
+     */
+    public synchronized String getLabel(int page, int component)
+    {
+        return labels.get(key(page, component));
+    }
+
+    /**
+     * @return the current labels, by <code>key(page, component)</code>
+     */
+    public synchronized Map<Long, String> getLabels()
+    {
+        return new HashMap<Long, String>(labels);
+    }
+
+    /**
+     * Labels a component
+     *
+     * @param label the label, or <code>null</code> to remove the component's label
+     * @throws IOException if an earlier write failed
+     */
+    public void append(int page, int component, String label)
+            throws IOException
+    {
+        boolean full;
+        synchronized (this)
+        {
+            check();
+            set(page, component, label);
+            new Record(page, component, label).write(buffer);
+            full = buffer.size() >= MAX_BUFFERED;
+        }
+        if (full)
+            flush();
+    }
+
+    /**
+     * Gives a set of components the same label, as a single record, which is written and
+     * forced to disk straight away, so either all of them are labelled or, if the program
+     * dies before the record is complete, none are. A single component is labelled as by
+     * <code>append</code>.
+     *
+     * @param pages      the pages of the components
+     * @param components their connected component numbers
+     * @param label      the label, or <code>null</code> to remove the components' labels
+     * @throws IOException if the record, or an earlier one, could not be written
+     */
+    public void appendAll(int[] pages, int[] components, String label)
+            throws IOException
+    {
+        if (pages.length != components.length)
+            throw new IllegalArgumentException("There are " + pages.length + " pages for " + components.length + " components");
+        if (pages.length == 0)
+            return;
+        if (pages.length == 1)
+        {
+            // a single record is atomic anyway, so it can wait for the next group commit
+            append(pages[0], components[0], label);
+            return;
+        }
+        synchronized (this)
+        {
+            check();
+            for (int i = 0; i < pages.length; i++)
+                set(pages[i], components[i], label);
+            new Record(pages.clone(), components.clone(), label).write(buffer);
+        }
+        sync();
+    }
+
+    private void check()
+            throws IOException
+    {
+        if (closed)
+            throw new IOException("Label journal " + file + " has been closed");
+        if (failure != null)
+            throw failure;
+    }
+
+    /**
+     * Writes the records added so far and forces them to disk
+     *
+     * @throws IOException if they, or any records before them, could not be written
+     */
+    public void sync()
+            throws IOException
+    {
+        flush();
+        synchronized (this)
+        {
+            if (failure != null)
+                throw failure;
+        }
+    }
+
+    private void flush()
+            throws IOException
+    {
+        synchronized (writeLock)
+        {
+            byte[] data;
+            synchronized (this)
+            {
+                if (buffer.size() == 0 || failure != null || !channel.isOpen())
+                    return;
+                data = buffer.toByteArray();
+                buffer.reset();
+            }
+            try
+            {
+                ByteBuffer bb = ByteBuffer.wrap(data);
+                while (bb.hasRemaining())
+                    channel.write(bb);
+                channel.force(false);
+            }
+            catch (IOException e)
+            {
+                synchronized (this)
+                {
+                    failure = e;
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Writes the current labels, sorted by page and component, to a JSON file, as an
+     * array of records like those of the journal. The file is replaced only once the new
+     * one has been written in full.
+     *
+     * @throws IOException if the file cannot be written
+     */
+    public void export(File output)
+            throws IOException
+    {
+        Map<Long, String> current = getLabels();
+        List<Long> keys = new ArrayList<Long>(current.keySet());
+        Collections.sort(keys);
+
+        StringBuilder sb = new StringBuilder("[\n");
+        for (int i = 0; i < keys.size(); i++)
+        {
+            long key = keys.get(i);
+            sb.append(new Record(pageOf(key), componentOf(key), current.get(key)));
+            sb.append(i < keys.size() - 1 ? ",\n" : "\n");
+        }
+        sb.append("]\n");
+
+        File tmp = new File(output.getAbsoluteFile().getParentFile(), output.getName() + ".tmp");
+        FileOutputStream fos = new FileOutputStream(tmp);
+        try
+        {
+            fos.write(sb.toString().getBytes(UTF8));
+            fos.getChannel().force(true);
+        }
+        finally
+        {
+            fos.close();
+        }
+        Files.move(tmp.toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return where <code>export</code> writes by default: the journal file with a
+     *         <code>.json</code> extension
+     */
+    public File getExportFile()
+    {
+        return new File(file.getAbsoluteFile().getParentFile(), file.getName().replaceFirst("\\.jsonl$", "") + ".json");
+    }
+
+    public File getFile()
+    {
+        return file;
+    }
+
+    /**
+     * Writes any records not yet written and closes the journal
+     */
+    public void close()
+            throws IOException
+    {
+        synchronized (this)
+        {
+            if (closed)
+                return;
+            closed = true;
+        }
+        flusher.shutdown();
+        try
+        {
+            flush();
+        }
+        finally
+        {
+            channel.close();
+            try
+            {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            }
+            catch (IllegalStateException ignored)
+            {
+                // already shutting down
+            }
+        }
+        synchronized (this)
+        {
+            if (failure != null)
+                throw failure;
+        }
+    }
+
+    /**
+     * One line of the journal
+     */
+    private static class Record
+    {
+        final int[] pages;
+        final int[] components;
+        final String label;
+
+        Record(int page, int component, String label)
+        {
+            this(new int[]{page}, new int[]{component}, label);
+        }
+
+        Record(int[] pages, int[] components, String label)
+        {
+            this.pages = pages;
+            this.components = components;
+            this.label = label;
+        }
+
+        /**
+         * Adds the record to a buffer as a line of the journal
+         */
+        void write(ByteArrayOutputStream out)
+        {
+            byte[] bytes = (this + "\n").getBytes(UTF8);
+            out.write(bytes, 0, bytes.length);
+        }
+
+        public String toString()
+        {
+            StringBuilder sb = new StringBuilder(48);
+            if (pages.length == 1)
+                sb.append("{\"page\":").append(pages[0]).append(",\"cc\":").append(components[0]).append(",\"label\":");
+            else
+            {
+                sb.append("{\"cc\":[");
+                for (int i = 0; i < pages.length; i++)
+                    sb.append(i == 0 ? "[" : ",[").append(pages[i]).append(',').append(components[i]).append(']');
+                sb.append("],\"label\":");
+            }
+            if (label == null)
+                sb.append("null");
+            else
+                quote(sb, label);
+            return sb.append('}').toString();
+        }
+
+        private static void quote(StringBuilder sb, String s)
+        {
+            sb.append('"');
+            for (int i = 0; i < s.length(); i++)
+            {
+                char c = s.charAt(i);
+                if (c == '"' || c == '\\')
+                    sb.append('\\').append(c);
+                else if (c < 0x20)
+                    sb.append(String.format("\\u%04x", (int) c));
+                else
+                    sb.append(c);
+            }
+            sb.append('"');
+        }
+
+        /**
+         * Reads a record from a line of the journal: a JSON object with integer
+         * <code>page</code> and <code>cc</code> members, or a <code>cc</code> member that is a
+         * list of [page, number] pairs, and a string or null <code>label</code>. Other
+         * members are ignored.
+         *
+         * @return the record, or <code>null</code> if the line is not one
+         */
+        static Record parse(String line)
+        {
+            Integer page = null;
+            Integer component = null;
+            List<?> pairs = null;
+            String label = null;
+            boolean hasLabel = false;
+            int[] pos = {0};
+            try
+            {
+                expect(line, pos, '{');
+                if (peek(line, pos) == '}')
+                    return null;
+                while (true)
+                {
+                    String name = readString(line, pos);
+                    expect(line, pos, ':');
+                    Object value = readValue(line, pos);
+                    if (name.equals("page") && value instanceof Long)
+                        page = (int) (long) (Long) value;
+                    else if (name.equals("cc") && value instanceof Long)
+                        component = (int) (long) (Long) value;
+                    else if (name.equals("cc") && value instanceof List)
+                        pairs = (List<?>) value;
+                    else if (name.equals("label") && (value == null || value instanceof String))
+                    {
+                        label = (String) value;
+                        hasLabel = true;
+                    }
+                    char c = peek(line, pos);
+                    pos[0]++;
+                    if (c == '}')
+                        break;
+                    if (c != ',')
+                        return null;
+                }
+                if (peek(line, pos) != 0)
+                    return null;
+            }
+            catch (IllegalArgumentException e)
+            {
+                return null;
+            }
+            if (!hasLabel)
+                return null;
+            if (pairs != null)
+            {
+                int[] pages = new int[pairs.size()];
+                int[] components = new int[pairs.size()];
+                for (int i = 0; i < pairs.size(); i++)
+                {
+                    Object pair = pairs.get(i);
+                    if (!(pair instanceof List) || ((List<?>) pair).size() != 2
+                        || !(((List<?>) pair).get(0) instanceof Long) || !(((List<?>) pair).get(1) instanceof Long))
+                        return null;
+                    pages[i] = (int) (long) (Long) ((List<?>) pair).get(0);
+                    components[i] = (int) (long) (Long) ((List<?>) pair).get(1);
+                }
+                return new Record(pages, components, label);
+            }
+            if (page == null || component == null)
+                return null;
+            return new Record(page, component, label);
+        }
+
+        /** @return the next character that is not white space, or 0 at the end of the line */
+        private static char peek(String s, int[] pos)
+        {
+            while (pos[0] < s.length() && Character.isWhitespace(s.charAt(pos[0])))
+                pos[0]++;
+            return pos[0] < s.length() ? s.charAt(pos[0]) : 0;
+        }
+
+        private static void expect(String s, int[] pos, char c)
+        {
+            if (peek(s, pos) != c)
+                throw new IllegalArgumentException("Expected " + c + " at " + pos[0]);
+            pos[0]++;
+        }
+
+        private static Object readValue(String s, int[] pos)
+        {
+            char c = peek(s, pos);
+            if (c == '"')
+                return readString(s, pos);
+            if (c == '[')
+            {
+                pos[0]++;
+                List<Object> list = new ArrayList<Object>();
+                if (peek(s, pos) == ']')
+                {
+                    pos[0]++;
+                    return list;
+                }
+                while (true)
+                {
+                    list.add(readValue(s, pos));
+                    char next = peek(s, pos);
+                    pos[0]++;
+                    if (next == ']')
+                        return list;
+                    if (next != ',')
+                        throw new IllegalArgumentException("Expected , or ] at " + (pos[0] - 1));
+                }
+            }
+            if (s.startsWith("null", pos[0]))
+            {
+                pos[0] += 4;
+                return null;
+            }
+            int start = pos[0];
+            if (c == '-')
+                pos[0]++;
+            while (pos[0] < s.length() && Character.isDigit(s.charAt(pos[0])))
+                pos[0]++;
+            if (pos[0] == start || pos[0] < s.length() && ".eE".indexOf(s.charAt(pos[0])) >= 0)
+                throw new IllegalArgumentException("Expected an integer at " + start);
+            return Long.parseLong(s.substring(start, pos[0]));
+        }
+
+        private static String readString(String s, int[] pos)
+        {
+            expect(s, pos, '"');
+            StringBuilder sb = new StringBuilder();
+            while (true)
+            {
+                if (pos[0] >= s.length())
+                    throw new IllegalArgumentException("Unterminated string");
+                char c = s.charAt(pos[0]++);
+                if (c == '"')
+                    return sb.toString();
+                if (c != '\\')
+                {
+                    sb.append(c);
+                    continue;
+                }
+                if (pos[0] >= s.length())
+                    throw new IllegalArgumentException("Unterminated string");
+                char e = s.charAt(pos[0]++);
+                switch (e)
+                {
+                    case 'b': sb.append('\b'); break;
+                    case 'f': sb.append('\f'); break;
+                    case 'n': sb.append('\n'); break;
+                    case 'r': sb.append('\r'); break;
+                    case 't': sb.append('\t'); break;
+                    case 'u':
+                        if (pos[0] + 4 > s.length())
+                            throw new IllegalArgumentException("Bad escape");
+                        sb.append((char) Integer.parseInt(s.substring(pos[0], pos[0] + 4), 16));
+                        pos[0] += 4;
+                        break;
+                    default: sb.append(e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package gte.utils;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The decoded pages of a multi-page image file, read on demand or ahead of time in the
+ * background, so that moving to a neighbouring page need not wait for it to be decoded
+ * <p/>
+ * The file is opened once, and its <code>ImageFile</code> is shared by every read, so its
+ * page count is only found once. Asking for a page of another file closes the first.
+ * <p/>
+ * Decoded pages are kept, least recently used first, until they take up more than
+ * <code>budget</code> bytes, though the most recently used page is always kept. Prefetches
+ * and other background tasks run one at a time on a single daemon thread, behind a queue
+ * of at most <code>MAX_QUEUED</code> tasks: any more are dropped, as a page that is not
+ * prefetched can still be read when it is asked for.
+ */
+public class PageCache
+{
+    private static final int MAX_QUEUED = 8;
+
+    /** the memory budget if none is given: a quarter of the heap */
+    private static final long DEFAULT_BUDGET = Runtime.getRuntime().maxMemory() / 4;
+
+    private final long budget;
+
+    private final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<Runnable>(MAX_QUEUED), new ThreadFactory()
+    {
+        public Thread newThread(Runnable r)
+        {
+            Thread t = new Thread(r, "page prefetch");
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        }
+    });
+
+    private File file;
+    private ImageFile imageFile;
+
+    /** the decoded pages of <code>file</code>, least recently used first */
+    private final LinkedHashMap<Integer, BufferedImage> pages = new LinkedHashMap<Integer, BufferedImage>(16, 0.75f, true);
+    private long bytes = 0;
+
+    /** the pages of <code>file</code> being read */
+    private final HashMap<Integer, FutureTask<BufferedImage>> pending = new HashMap<Integer, FutureTask<BufferedImage>>();
+
+    public PageCache()
+    {
+        this(DEFAULT_BUDGET);
+    }
+
+    /**
+     * @param budget the most memory, in bytes, the decoded pages may take up
+     */
+    public PageCache(long budget)
+    {
+        this.budget = budget;
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @return the number of pages of a file
+     * @throws IOException                   if the file cannot be opened
+     * @throws UnsupportedImageTypeException if the file is not an image file
+     */
+    public synchronized int getNumPages(File f)
+            throws IOException, UnsupportedImageTypeException
+    {
+        return open(f).getNumImages();
+    }
+
+    /**
+     * Gets a page of a file, from the cache if it has been read, waiting for it if it is
+     * being prefetched, or else reading it now. A prefetch that is still queued, perhaps
+     * behind other background tasks, is run now by the caller rather than waited for.
+     *
+     * @param f    the image file
+     * @param page the index of the page: in the range <code>[0..getNumPages(f)-1]</code>
+     * @return the page, which may be shared and so must not be modified
+     * @throws IOException                   if the file or page cannot be read
+     * @throws UnsupportedImageTypeException if the file is not an image file
+     * @throws IndexOutOfBoundsException     if there is no such page
+     */
+    public BufferedImage getPage(File f, int page)
+            throws IOException, UnsupportedImageTypeException
+    {
+        FutureTask<BufferedImage> task;
+        synchronized (this)
+        {
+            ImageFile source = open(f);
+            BufferedImage image = pages.get(page);
+            if (image != null)
+                return image;
+            task = pending.get(page);
+            if (task == null)
+                task = read(source, page);
+        }
+        // does nothing if the task has started on the background thread, and makes the
+        // background thread skip it if it has not
+        task.run();
+        try
+        {
+            return task.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading page " + page + " of " + f);
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Starts reading a page of a file in the background, unless it has been read or is
+     * being read already, or it does not exist
+     */
+    public synchronized void prefetch(File f, int page)
+    {
+        try
+        {
+            ImageFile source = open(f);
+            if (page < 0 || page >= source.getNumImages() || pages.containsKey(page) || pending.containsKey(page))
+                return;
+            FutureTask<BufferedImage> task = read(source, page);
+            if (!runInBackground(task))
+                pending.remove(page);
+        }
+        catch (IOException ignored)
+        {
+            // it is reported if the page is asked for
+        }
+        catch (UnsupportedImageTypeException ignored)
+        {
+        }
+    }
+
+    /**
+     * Runs some other work that helps show a page, such as reading its component clips,
+     * on the background thread, if it is not too busy
+     *
+     * @return whether the task was accepted
+     */
+    public boolean runInBackground(Runnable task)
+    {
+        try
+        {
+            executor.execute(task);
+            return true;
+        }
+        catch (RejectedExecutionException e)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * @return a task that reads a page and caches it, registered as pending
+     */
+    private FutureTask<BufferedImage> read(final ImageFile source, final int page)
+    {
+        FutureTask<BufferedImage> task = new FutureTask<BufferedImage>(new Callable<BufferedImage>()
+        {
+            public BufferedImage call()
+                    throws IOException
+            {
+                try
+                {
+                    BufferedImage image = source.getBufferedImage(page);
+                    store(source, page, image);
+                    return image;
+                }
+                finally
+                {
+                    done(source, page);
+                }
+            }
+        });
+        pending.put(page, task);
+        return task;
+    }
+
+    private synchronized void store(ImageFile source, int page, BufferedImage image)
+    {
+        if (source != imageFile)
+            return; // the file has been closed since
+        BufferedImage old = pages.put(page, image);
+        if (old != null)
+            bytes -= bytes(old);
+        bytes += bytes(image);
+        Iterator<BufferedImage> eldest = pages.values().iterator();
+        while (bytes > budget && pages.size() > 1)
+        {
+            bytes -= bytes(eldest.next());
+            eldest.remove();
+        }
+    }
+
+    private synchronized void done(ImageFile source, int page)
+    {
+        if (source == imageFile)
+            pending.remove(page);
+    }
+
+    private static long bytes(BufferedImage image)
+    {
+        DataBuffer data = image.getRaster().getDataBuffer();
+        return (long) data.getSize() * data.getNumBanks() * DataBuffer.getDataTypeSize(data.getDataType()) / 8;
+    }
+
+    /**
+     * @return the open image file, opening it first, and closing any other, if it is not the
+     *         one asked for
+     */
+    private ImageFile open(File f)
+            throws IOException, UnsupportedImageTypeException
+    {
+        if (imageFile != null && f.equals(file))
+            return imageFile;
+        ImageFile opened = ImageFile.open(f);
+        close();
+        file = f;
+        imageFile = opened;
+        return imageFile;
+    }
+
+    /**
+     * Drops the cached pages and closes the open file
+     */
+    public synchronized void close()
+    {
+        pages.clear();
+        pending.clear();
+        bytes = 0;
+        if (imageFile != null)
+        {
+            imageFile.close();
+            imageFile = null;
+            file = null;
+        }
+    }
+}
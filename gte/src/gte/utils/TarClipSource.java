@@ -0,0 +1,199 @@
+package gte.utils;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Clips read from a gzip compressed tar archive
+ * <p/>
+ * A compressed archive can only be read from the start, so the first scan reads the
+ * whole archive once and keeps the contents of the entries a clip source uses in
+ * memory. Other entries are skipped. Archives of packed clip stores, rather than of
+ * individual clip files, take far less memory.
+ * <p/>
+ * Plain ustar archives are read, along with the GNU and POSIX (pax) extensions for long
+ * file names.
+ */
+class TarClipSource extends ArchiveClipSource
+{
+    private static final int BLOCK = 512;
+
+    private final HashMap<String, byte[]> entries = new HashMap<String, byte[]>();
+
+    TarClipSource(File archive)
+    {
+        super(archive);
+    }
+
+    void scan()
+            throws IOException
+    {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(new FileInputStream(archive), 1 << 16), 1 << 16));
+        try
+        {
+            byte[] header = new byte[BLOCK];
+            String longName = null;
+            while (true)
+            {
+                try
+                {
+                    in.readFully(header);
+                }
+                catch (EOFException eof)
+                {
+                    break; // some writers leave out the closing blocks
+                }
+                if (isZero(header))
+                    break;
+
+                long size = octal(header, 124, 12);
+                char type = (char) header[156];
+                String name = longName != null ? longName : name(header);
+                longName = null;
+
+                if (type == 'L' || type == 'x')
+                {
+                    byte[] data = readEntry(in, size);
+                    longName = type == 'L' ? string(data, 0, data.length) : paxPath(data);
+                }
+                else if ((type == '0' || type == '\0') && entryKey(name) != null)
+                {
+                    index(entries, name, readEntry(in, size));
+                }
+                else
+                {
+                    skip(in, padded(size));
+                }
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    byte[] read(String key)
+    {
+        return entries.get(key);
+    }
+
+    public synchronized void close()
+            throws IOException
+    {
+        super.close();
+        entries.clear();
+    }
+
+    /**
+     * Reads the data of an entry and the padding after it
+     */
+    private static byte[] readEntry(DataInputStream in, long size)
+            throws IOException
+    {
+        if (size > Integer.MAX_VALUE - BLOCK)
+            throw new IOException("Archive entry too large");
+        byte[] data = new byte[(int) size];
+        in.readFully(data);
+        skip(in, padded(size) - size);
+        return data;
+    }
+
+    private static long padded(long size)
+    {
+        return (size + BLOCK - 1) / BLOCK * BLOCK;
+    }
+
+    private static void skip(DataInputStream in, long n)
+            throws IOException
+    {
+        while (n > 0)
+        {
+            int skipped = in.skipBytes((int) Math.min(n, Integer.MAX_VALUE));
+            if (skipped <= 0)
+                throw new EOFException("Truncated archive");
+            n -= skipped;
+        }
+    }
+
+    private static boolean isZero(byte[] block)
+    {
+        for (byte b : block)
+            if (b != 0)
+                return false;
+        return true;
+    }
+
+    private static String name(byte[] header)
+    {
+        String name = string(header, 0, 100);
+        boolean ustar = string(header, 257, 5).equals("ustar");
+        String prefix = ustar ? string(header, 345, 155) : "";
+        return prefix.isEmpty() ? name : prefix + "/" + name;
+    }
+
+    /**
+     * @return a NUL terminated string from a header field
+     */
+    private static String string(byte[] b, int offset, int length)
+    {
+        int end = offset;
+        while (end < offset + length && b[end] != 0)
+            end++;
+        return new String(b, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    private static long octal(byte[] b, int offset, int length)
+            throws IOException
+    {
+        long value = 0;
+        int i = offset;
+        while (i < offset + length && b[i] == ' ')
+            i++;
+        for (; i < offset + length && b[i] != 0 && b[i] != ' '; i++)
+        {
+            if (b[i] < '0' || b[i] > '7')
+                throw new IOException("Bad archive header");
+            value = value * 8 + (b[i] - '0');
+        }
+        return value;
+    }
+
+    /**
+     * @return the <code>path</code> record of a pax extended header, or <code>null</code>
+     */
+    private static String paxPath(byte[] data)
+    {
+        // records are "<length> <keyword>=<value>\n", the length counting the whole record
+        int pos = 0;
+        while (pos < data.length)
+        {
+            int space = pos;
+            while (space < data.length && data[space] != ' ')
+                space++;
+            int length;
+            try
+            {
+                length = Integer.parseInt(new String(data, pos, space - pos, StandardCharsets.US_ASCII));
+            }
+            catch (NumberFormatException nfe)
+            {
+                return null;
+            }
+            if (length <= 0 || pos + length > data.length)
+                return null;
+            String record = new String(data, space + 1, pos + length - space - 2, StandardCharsets.UTF_8);
+            if (record.startsWith("path="))
+                return record.substring(5);
+            pos += length;
+        }
+        return null;
+    }
+}
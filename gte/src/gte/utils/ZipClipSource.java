@@ -0,0 +1,66 @@
+package gte.utils;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Clips read from a zip archive. Entries are read directly from the archive when they
+ * are needed.
+ */
+class ZipClipSource extends ArchiveClipSource
+{
+    private final ZipFile zip;
+    private final HashMap<String, ZipEntry> entries = new HashMap<String, ZipEntry>();
+
+    ZipClipSource(File archive)
+            throws IOException
+    {
+        super(archive);
+        zip = new ZipFile(archive);
+    }
+
+    void scan()
+    {
+        Enumeration<? extends ZipEntry> all = zip.entries();
+        while (all.hasMoreElements())
+        {
+            ZipEntry e = all.nextElement();
+            if (!e.isDirectory())
+                index(entries, e.getName(), e);
+        }
+    }
+
+    byte[] read(String key)
+            throws IOException
+    {
+        ZipEntry e = entries.get(key);
+        if (e == null)
+            return null;
+        if (e.getSize() > Integer.MAX_VALUE)
+            throw new IOException("\"" + e.getName() + "\" is too large");
+        byte[] data = new byte[(int) e.getSize()];
+        DataInputStream in = new DataInputStream(zip.getInputStream(e));
+        try
+        {
+            in.readFully(data);
+        }
+        finally
+        {
+            in.close();
+        }
+        return data;
+    }
+
+    public synchronized void close()
+            throws IOException
+    {
+        super.close();
+        entries.clear();
+        zip.close();
+    }
+}
@@ -32,6 +32,10 @@ class Canvas extends JPanel
     private CanvasMouseListener mouseListener;
     private CanvasKeyboardListener keyboardListener;
     private boolean hasFocus = false;
+    private final TileCache tiles = new TileCache();
+
+    /** drawn over selected components */
+    private static final Color SELECTION_TINT = new Color(0, 0, 100, 100);
 
     /**
      * The default constructor should NEVER be called. It is made private so that no other class can create a
@@ -78,10 +82,22 @@ class Canvas extends JPanel
         if (view.getToggled()) {
             List<Rectangle> rects = model.getRects();
             g2.scale(view.getZoomLevel(), view.getZoomLevel());
+            // Only the components in the area being repainted need to be drawn
+            Rectangle clip = g2.getClipBounds();
+            List<Component> visible = clip == null ? model.getComps() : model.getComponentsIn(clip);
             //g2.setColor(Color.WHITE);
-            for (Component c : model.getComps()) {
+            for (Component c : visible) {
                 g2.drawImage(c.getHeldImage(), c.getImageCoords().x, c.getImageCoords().y, null);
             }
+            // Highlight the selected components by tinting their boxes
+            Color previous = g2.getColor();
+            g2.setColor(SELECTION_TINT);
+            for (Component c : visible) {
+                if (model.isSelected(c)) {
+                    g2.fill(c.getImageCoords());
+                }
+            }
+            g2.setColor(previous);
             if (!rects.isEmpty()) {
                 Color col = g2.getColor();
                 g2.setColor(Color.BLUE);
@@ -90,9 +106,8 @@ class Canvas extends JPanel
                 }
                 g2.setColor(col);
             }
-            // In case there is some animation going on (e.g. mouse dragging), call this to
-            // paint the intermediate images
-            this.updateUI();
+            // In case there is some animation going on (e.g. mouse dragging), paint the
+            // intermediate images
             mouseListener.paint(g);
         }
         else if (model.getImage() != null)
@@ -100,9 +115,10 @@ class Canvas extends JPanel
             BufferedImage image = model.getImage();
             List<Rectangle> rects = model.getRects();
 
-            // Draw the display image on the full size canvas
+            // Draw the tiles of the display image that are in view, already scaled, then
+            // draw the rest on the full size canvas
+            tiles.paint(g2, image, view.getZoomLevel());
             g2.scale(view.getZoomLevel(), view.getZoomLevel());
-            g2.drawImage(image, 0, 0, null);
 
             if (!rects.isEmpty()) {
                 Color col = g2.getColor();
@@ -112,9 +128,8 @@ class Canvas extends JPanel
                 }
                 g2.setColor(col);
             }
-            this.updateUI();
-            // In case there is some animation going on (e.g. mouse dragging), call this to
-            // paint the intermediate images
+            // In case there is some animation going on (e.g. mouse dragging), paint the
+            // intermediate images
             mouseListener.paint(g);
         }
     }
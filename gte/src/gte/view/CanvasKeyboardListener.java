@@ -37,19 +37,19 @@ public class CanvasKeyboardListener implements KeyListener {
         switch( keyCode ) {
             case KeyEvent.VK_UP:
                 System.out.println("up");
-                model.selectComponent(model.nextAbove());
+                controller.selectComponent(model.nextAbove());
                 break;
             case KeyEvent.VK_DOWN:
                 System.out.println("up");
-                model.selectComponent(model.nextBelow());
+                controller.selectComponent(model.nextBelow());
                 break;
             case KeyEvent.VK_LEFT:
                 System.out.println("up");
-                model.selectComponent(model.nextLeft());
+                controller.selectComponent(model.nextLeft());
                 break;
             case KeyEvent.VK_RIGHT :
                 System.out.println("up");
-                model.selectComponent(model.nextRight());
+                controller.selectComponent(model.nextRight());
                 break;
             case KeyEvent.VK_ENTER:
                 System.out.println("y u do dish");
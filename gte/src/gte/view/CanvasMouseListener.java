@@ -62,7 +62,7 @@ class CanvasMouseListener implements MouseInputListener
     @Override
     public void mouseClicked(MouseEvent e)
     {
-        model.selectComponent(model.whichClicked(e.getPoint()));
+        controller.selectComponent(model.whichClicked(e.getPoint()));
     }
 
     @Override
@@ -72,6 +72,8 @@ class CanvasMouseListener implements MouseInputListener
             return ;
         x1 = (int)(e.getX()/view.getZoomLevel());
         y1 = (int)(e.getY()/view.getZoomLevel());
+        x2 = x1;
+        y2 = y1;
         mouseDown = true;
         view.getCanvas().addMouseMotionListener(this);
     }
@@ -84,6 +86,8 @@ class CanvasMouseListener implements MouseInputListener
             return ;
         view.getCanvas().removeMouseMotionListener(this);
         mouseDown = false;
+        // the rubber band rectangle is no longer drawn
+        view.repaintRegion(band());
         x2 = (int)(e.getX()/view.getZoomLevel());
         y2 = (int)(e.getY()/view.getZoomLevel());
         if (x1 <= x2)
@@ -100,16 +104,12 @@ class CanvasMouseListener implements MouseInputListener
             else
                 r = new Rectangle(x2, y2, x1 - x2, y1 - y2);
         }
-        if (e.getModifiers()!=0 && e.isShiftDown()) {
-            model.selectComponents(model.allSelected(r));
-        } else if (e.getModifiers()!=0 && e.isControlDown()) {
-            model.toggleComponents(model.allSelected(r));
+        if (e.getModifiers()!=0 && e.isAltDown()) {
+            controller.deselectArea(r);
         } else {
-            model.deselectAllComponents();
-            model.selectComponents(model.allSelected(r));
+            controller.selectArea(r, e.getModifiers()!=0 && e.isShiftDown(),
+                    e.getModifiers()!=0 && !e.isShiftDown() && e.isControlDown());
         }
-
-        controller.addRect(r);
     }
 
     @Override
@@ -125,9 +125,16 @@ class CanvasMouseListener implements MouseInputListener
     @Override
     public void mouseDragged(MouseEvent e)
     {
+        // repaint where the rubber band rectangle was and where it is now
+        Rectangle before = band();
         x2 = (int)(e.getX()/view.getZoomLevel());
         y2 = (int)(e.getY()/view.getZoomLevel());
-        view.getCanvas().repaint();
+        view.repaintRegion(before.union(band()));
+    }
+
+    private Rectangle band()
+    {
+        return new Rectangle(Math.min(x1, x2), Math.min(y1, y2), Math.abs(x2 - x1), Math.abs(y2 - y1));
     }
 
     @Override
@@ -11,6 +11,7 @@ import java.awt.*;
 import java.io.*;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
@@ -24,7 +25,9 @@ public class TypeEnterBox extends JPanel {
 
     private View view;
     private Model model;
+    private Controller controller;
     private JTextField field;
+    private JLabel confidenceLabel;
     private InputKeyboardListener keyboardListener;
     private TypeEnterBox() {
 
@@ -40,22 +43,59 @@ public class TypeEnterBox extends JPanel {
         return out + "}";
     }
 
-    public void convertDataToJSON(String label, Component data) {
-        JSONObject obj = new JSONObject();
-        obj.put("label", label);
-        obj.put("data", data.toString());
+    /**
+     * Records a label typed for the selected components in the label journal, through the
+     * controller. The whole selection, such as a selected cluster, is labelled at once.
+     */
+    public void saveLabel(String label) {
+        if (label.isEmpty() || model.getSelectionSize() == 0) {
+            return;
+        }
         try {
+            if (controller.labelSelection(label) == 0) {
+                JOptionPane.showMessageDialog(view, "Only components loaded from a CSV file can be labelled");
+            }
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(view, "Could not save the label: " + e.getMessage());
+        }
+    }
 
-            FileWriter file = new FileWriter("test.json",true);
-            file.append(obj.toJSONString());
-
-            file.flush();
-            file.close();
+    /**
+     * Records a label typed for the selection and the rest of the cluster of the first selected component on the
+     * other pages of the CSV file, in the label journal, through the controller. The components of other pages have
+     * not been reviewed, so the user is asked to confirm first. If the components have not been clustered yet, the
+     * label is recorded once they have been, without holding up the rest of the window.
+     */
+    public void saveClusterLabel(final String label) {
+        if (label.isEmpty() || model.getSelectionSize() == 0) {
+            return;
+        }
+        view.whenClustered(new Runnable() {
+            public void run() {
+                saveClusterLabelNow(label);
+            }
+        });
+    }
 
+    private void saveClusterLabelNow(String label) {
+        if (model.getSelectionSize() == 0) {
+            return;
+        }
+        List<Component> cluster = controller.getClusterAcrossPages();
+        int unseen = cluster.size() - model.getSelectionSize();
+        if (unseen > 0 && JOptionPane.showConfirmDialog(view, "Label the " + model.getSelectionSize()
+                + " selected components and " + unseen + " similar components on other pages, which you have not"
+                + " reviewed, as \"" + label + "\"?", "Label cluster", JOptionPane.OK_CANCEL_OPTION)
+                != JOptionPane.OK_OPTION) {
+            return;
+        }
+        try {
+            if (controller.labelComponents(cluster, label) == 0) {
+                JOptionPane.showMessageDialog(view, "Only components loaded from a CSV file can be labelled");
+            }
         } catch (IOException e) {
-            e.printStackTrace();
+            JOptionPane.showMessageDialog(view, "Could not save the label: " + e.getMessage());
         }
-
     }
 
     public void writeJSONToFile() throws IOException{
@@ -118,12 +158,43 @@ public class TypeEnterBox extends JPanel {
         return field.getText();
     }
 
+    /**
+     * Puts a label in the field, selected so that typing replaces it
+     * @param label the label, or <code>null</code> to clear the field
+     */
+    public void setData(String label) {
+        if (label == null) {
+            field.setText("");
+            return;
+        }
+        field.setText(label);
+        field.selectAll();
+    }
+
+    /**
+     * Puts a suggested label in the field, as <code>setData</code> does, and shows how confident the
+     * suggestion is beside it
+     * @param label the label, or <code>null</code> if there is no suggestion, which clears the field
+     * @param confidence from 0 to 1, or <code>NaN</code> if unknown
+     */
+    public void setSuggestion(String label, float confidence) {
+        setData(label);
+        if (label == null || Float.isNaN(confidence)) {
+            confidenceLabel.setText("");
+        } else {
+            confidenceLabel.setText(Math.round(confidence * 100) + "%");
+        }
+    }
+
     public TypeEnterBox(Model model, View view, Controller controller)
     {
         this.view = view;
         this.model = model;
+        this.controller = controller;
         field = new JTextField(30);
         this.add(field, BorderLayout.SOUTH);
+        confidenceLabel = new JLabel();
+        this.add(confidenceLabel);
         keyboardListener = new InputKeyboardListener(model, view, controller);
         addKeyListener(keyboardListener);
         System.out.println("plserino");
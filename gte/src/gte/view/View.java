@@ -11,6 +11,7 @@ import java.awt.event.ActionEvent;
 import java.awt.event.KeyEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.util.concurrent.ExecutionException;
 
 /**
  * User: Alan P. Sexton
@@ -36,11 +37,14 @@ public class View extends JFrame
     private CanvasKeyboardListener keyboardListener;
     private double zoomLevel = 1;
     private TypeEnterBox teb;
+    private AbstractAction selectCluster;
+    /** whether the components are being clustered in the background */
+    private boolean clustering;
 
     public void setZoomLevel(double z) {
         zoomLevel = z;
         System.out.println(zoomLevel);
-        repaint();
+        setCanvasSize();
         canvas.repaint();
     }
     public double getZoomLevel() {return zoomLevel;}
@@ -82,6 +86,9 @@ public class View extends JFrame
         AbstractAction zoomPageAction = new ZoomPage(model, this, controller);
         AbstractAction clearRectangles = new ClearRectangles(model, this, controller);
         AbstractAction upAction = new UpAction(model, this, controller);
+        selectCluster = new SelectCluster(model, this, controller);
+        AbstractAction selectSimilar = new SelectSimilar(model, this, controller);
+        AbstractAction invertSelection = new InvertSelection(model, this, controller);
 
         setDefaultCloseOperation(DO_NOTHING_ON_CLOSE);
         addWindowListener(new WindowAdapter()
@@ -106,6 +113,10 @@ public class View extends JFrame
         fileMenu.addSeparator();
         fileMenu.add(previousPage);
         fileMenu.add(nextPage);
+        fileMenu.addSeparator();
+        fileMenu.add(selectCluster);
+        fileMenu.add(selectSimilar);
+        fileMenu.add(invertSelection);
 
 
         JMenuBar menuBar;
@@ -164,11 +175,20 @@ public class View extends JFrame
                     @Override
                     public boolean dispatchKeyEvent(KeyEvent e) {
                         int keyCode = e.getKeyCode();
+                        // only presses in this window, not in the dialogs it opens
+                        if (e.getID() != KeyEvent.KEY_PRESSED || SwingUtilities.getRoot(e.getComponent()) != View.this) {
+                            return false;
+                        }
                         switch( keyCode ) {
                             case KeyEvent.VK_ENTER:
                                 System.out.println("plserino workerin");
                                 getTextData();
-                                teb.convertDataToJSON(getTextData(), getRect());
+                                // shift-enter labels the whole cluster, on every page
+                                if (e.isShiftDown()) {
+                                    teb.saveClusterLabel(getTextData());
+                                } else {
+                                    teb.saveLabel(getTextData());
+                                }
                                 break;
                         }
                         return false; //continue with the keypress, otherwise it'll be intercepted
@@ -187,16 +207,110 @@ public class View extends JFrame
 
     public String getTextData() {
         System.out.println(teb.getData());
-        System.out.println(model.getSelected().get(0));
+        System.out.println(model.getFirstSelected());
         return teb.getData();
     }
+    /**
+     * Offers a likely label for the selection, which the user can accept with Enter or type over
+     * @param label the label, or <code>null</code> if there is none to offer
+     * @param confidence how sure the suggestion is, from 0 to 1, or <code>NaN</code> if unknown
+     */
+    public void suggestLabel(String label, float confidence) {
+        teb.setSuggestion(label, confidence);
+    }
+
+    /**
+     * Shows a warning that does not stop what the user was doing
+     *
+     * @param message the warning
+     */
+    public void showWarning(String message) {
+        JOptionPane.showMessageDialog(this, message, "Warning", JOptionPane.WARNING_MESSAGE);
+    }
+
     public Component getRect() {
-        return model.getSelected().get(0);
+        return model.getFirstSelected();
     }
 
     public void adaptToNewImage()
     {
         setCanvasSize();
+        canvas.repaint();
+    }
+
+    /**
+     * Repaints the whole canvas. The canvas is only repainted when something it shows has changed, so this
+     * needs to be called after any change to the model that is not confined to a known region of the page.
+     */
+    public void repaintCanvas()
+    {
+        canvas.repaint();
+    }
+
+    /**
+     * Repaints only the part of the canvas that shows a region of the page
+     *
+     * @param region the region, in page coordinates, or <code>null</code> if nothing needs repainting
+     */
+    public void repaintRegion(Rectangle region)
+    {
+        if (region == null)
+            return;
+        // allow for lines drawn around the region and for rounding
+        int x = (int) Math.floor((region.x - 1) * zoomLevel) - 1;
+        int y = (int) Math.floor((region.y - 1) * zoomLevel) - 1;
+        int w = (int) Math.ceil((region.width + 2) * zoomLevel) + 3;
+        int h = (int) Math.ceil((region.height + 2) * zoomLevel) + 3;
+        canvas.repaint(x, y, w, h);
+    }
+
+    /**
+     * Runs something that needs the components to have been clustered, clustering them first if necessary.
+     * Clustering a whole volume takes a while, so it is done by a <code>SwingWorker</code> and the task is run
+     * on the Event Dispatch Thread once it is complete. "Select cluster" is disabled meanwhile, and anything else
+     * asked for before the clustering is complete is ignored.
+     *
+     * @param then the task, which is run on the Event Dispatch Thread
+     */
+    public void whenClustered(final Runnable then)
+    {
+        if (model.isClustered()) {
+            then.run();
+            return;
+        }
+        if (clustering) {
+            return;
+        }
+        clustering = true;
+        selectCluster.setEnabled(false);
+        setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+        new SwingWorker<Void, Void>()
+        {
+            @Override
+            protected Void doInBackground()
+            {
+                controller.clusterComponents();
+                return null;
+            }
+
+            @Override
+            protected void done()
+            {
+                clustering = false;
+                selectCluster.setEnabled(true);
+                setCursor(Cursor.getDefaultCursor());
+                try {
+                    get();
+                } catch (InterruptedException e) {
+                    return;
+                } catch (ExecutionException e) {
+                    JOptionPane.showMessageDialog(View.this, "Could not cluster the components: "
+                            + e.getCause().getMessage());
+                    return;
+                }
+                then.run();
+            }
+        }.execute();
     }
 
     public boolean getToggled() {return toggleAction.isToggled();}
@@ -216,7 +330,7 @@ public class View extends JFrame
         canvas.setSize(canvas.getPreferredSize());
 
         // need this so that the scroll bars knows the size of the canvas that has to be scrolled over
-        canvas.validate();
+        canvas.revalidate();
     }
 
     protected Canvas getCanvas()
@@ -34,6 +34,6 @@ public class ClearRectangles extends AbstractAction {
 
     public void actionPerformed(ActionEvent e)
     {
-        model.clearRects();
+        controller.clearRects();
     }
 }
@@ -0,0 +1,38 @@
+package gte.view.actions;
+
+import gte.controller.Controller;
+import gte.model.Model;
+import gte.view.View;
+
+import javax.swing.*;
+import java.awt.event.ActionEvent;
+
+/**
+ * Inverts the selection of the components on the page
+ */
+public class InvertSelection extends AbstractAction {
+    private static final long serialVersionUID = 1L;
+    @SuppressWarnings("unused")
+    private Model model;
+    @SuppressWarnings("unused")
+    private View view;
+    private Controller controller;
+
+    {
+        putValue(NAME, "Invert selection");
+        putValue(SHORT_DESCRIPTION, "Selects the components that are not selected, and deselects those that are");
+        putValue(ACCELERATOR_KEY, KeyStroke.getKeyStroke("control I"));
+    }
+
+    public InvertSelection(Model model, View view, Controller controller)
+    {
+        this.view = view;
+        this.model = model;
+        this.controller = controller;
+    }
+
+    public void actionPerformed(ActionEvent e)
+    {
+        controller.invertSelection();
+    }
+}
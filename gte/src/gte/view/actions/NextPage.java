@@ -45,6 +45,7 @@ public class NextPage extends AbstractAction {
             }
             model.loadImageWithNumber(model.getCurrentFile(), temp+1);
             view.setPageNum(temp+1);
+            view.adaptToNewImage();
         } catch (Exception ex) {
             JOptionPane.showMessageDialog(view, "This is the last image!");
         }
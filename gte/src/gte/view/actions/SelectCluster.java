@@ -0,0 +1,47 @@
+package gte.view.actions;
+
+import gte.controller.Controller;
+import gte.model.Model;
+import gte.view.View;
+
+import javax.swing.*;
+import java.awt.event.ActionEvent;
+
+/**
+ * Selects every component on the page that looks like the selected one, i.e. that is in
+ * the same feature cluster
+ */
+public class SelectCluster extends AbstractAction {
+    private static final long serialVersionUID = 1L;
+    private Model model;
+    private View view;
+    private Controller controller;
+
+    {
+        putValue(NAME, "Select cluster");
+        putValue(SHORT_DESCRIPTION, "Selects all the components in the same cluster as the selected one");
+        putValue(ACCELERATOR_KEY, KeyStroke.getKeyStroke("control G"));
+    }
+
+    public SelectCluster(Model model, View view, Controller controller)
+    {
+        this.view = view;
+        this.model = model;
+        this.controller = controller;
+    }
+
+    public void actionPerformed(ActionEvent e)
+    {
+        if (model.getSelectionSize() == 0) {
+            JOptionPane.showMessageDialog(view, "No component is selected!");
+            return;
+        }
+        view.whenClustered(new Runnable()
+        {
+            public void run()
+            {
+                controller.selectCluster();
+            }
+        });
+    }
+}
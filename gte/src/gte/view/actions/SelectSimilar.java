@@ -0,0 +1,41 @@
+package gte.view.actions;
+
+import gte.controller.Controller;
+import gte.model.Model;
+import gte.view.View;
+
+import javax.swing.*;
+import java.awt.event.ActionEvent;
+
+/**
+ * Selects the components on the page whose feature vectors are nearest to those of the
+ * selected one
+ */
+public class SelectSimilar extends AbstractAction {
+    private static final long serialVersionUID = 1L;
+    private Model model;
+    private View view;
+    private Controller controller;
+
+    {
+        putValue(NAME, "Select similar");
+        putValue(SHORT_DESCRIPTION, "Selects the components that look most like the selected one");
+        putValue(ACCELERATOR_KEY, KeyStroke.getKeyStroke("control M"));
+    }
+
+    public SelectSimilar(Model model, View view, Controller controller)
+    {
+        this.view = view;
+        this.model = model;
+        this.controller = controller;
+    }
+
+    public void actionPerformed(ActionEvent e)
+    {
+        if (model.getSelectionSize() == 0) {
+            JOptionPane.showMessageDialog(view, "No component is selected!");
+            return;
+        }
+        controller.selectSimilar();
+    }
+}
@@ -3,16 +3,12 @@ package gte.view.actions;
 import gte.controller.Controller;
 import gte.model.Model;
 import gte.view.View;
-import gte.model.Component;
 import gte.utils.ImageFile;
 
 import javax.swing.*;
 import java.awt.event.ActionEvent;
 import java.awt.image.BufferedImage;
-import java.io.BufferedReader;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.IOException;
+import java.io.File;
 
 
 /**
@@ -61,27 +57,20 @@ public class ToggleAction extends AbstractAction {
                 loadedImage = model.getImage();
                 if (model.getComps().isEmpty()) {
                     // first time, load the csv file
-                    String csvFile = "gte/data/sample_ccs/moments.csv";
-                    BufferedReader br = null;
-                    //Integer page = 1;
-                    String line;
+                    File csvFile = new File("gte/data/sample_ccs/moments.csv");
+                    if (!csvFile.isFile()) {
+                        // not extracted, read straight from the archive
+                        csvFile = new File("gte/data/sample_ccs.tgz");
+                    }
                     try {
-
-                        br = new BufferedReader(new FileReader(csvFile));
-                        br.readLine();
-                        while ((line = br.readLine()) != null) {
-                            int pagenum = view.getPageNum()+1;
-                            if (Integer.parseInt(""+line.charAt(13))==pagenum) {
-                                Component temp = new Component(line);
-                                model.addComponent(temp);
-                            }
-                        }
+                        controller.loadComponents(csvFile, view.getPageNum()+1);
 
                     } catch (Exception ex) {
                         JOptionPane.showMessageDialog(view, "Bad file path");
                         System.out.println(ex);
                     }
                 }
+                view.repaintCanvas();
 
 
             } else {
@@ -90,6 +79,7 @@ public class ToggleAction extends AbstractAction {
                 // clear our copy of the image to save memory
                 this.loadedImage = null;
                 this.toggled = false;
+                view.repaintCanvas();
             }
         } else {
             JOptionPane.showMessageDialog(view, "No image is loaded!");
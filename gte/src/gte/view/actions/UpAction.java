@@ -26,7 +26,7 @@ public class UpAction extends AbstractAction {
 
     public void actionPerformed(ActionEvent e)
     {
-        model.selectComponent(model.nextAbove());
+        controller.selectComponent(model.nextAbove());
         System.out.println("upperino");
     }
 }
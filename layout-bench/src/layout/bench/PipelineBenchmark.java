@@ -0,0 +1,169 @@
+package layout.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import layout.model.Component;
+import layout.model.Model;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Benchmarks the layout analysis of the sample pages in <code>layout/data</code>, both
+ * end to end and one stage at a time
+ * <p/>
+ * Each stage is measured on a model in which all the previous stages have already
+ * been run. All stages can simply be run again on the same model, except for
+ * <code>combineWordParagraphs</code>, which changes the lines it combines: the lines are
+ * detected again before every call to it, outside the measured time.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PipelineBenchmark
+{
+    static File dataDirectory()
+    {
+        return new File(System.getProperty("layout.data", "../layout/data"));
+    }
+
+    @State(Scope.Thread)
+    public static class SamplePage
+    {
+        @Param({"0167", "0168", "0180", "0181", "0184"})
+        public String page;
+
+        File csv;
+
+        @Setup(Level.Trial)
+        public void locate()
+                throws IOException
+        {
+            csv = new File(dataDirectory(), "image_" + page + ".csv");
+            if (!csv.isFile())
+                throw new IOException("Cannot find \"" + csv + "\": set layout.data to the layout data directory");
+        }
+    }
+
+    /**
+     * A model of the page on which every stage has been run
+     */
+    @State(Scope.Thread)
+    public static class Analysed
+    {
+        Model model;
+
+        @Setup(Level.Trial)
+        public void analyse(SamplePage sample)
+                throws IOException
+        {
+            model = new Model();
+            model.readCSV(sample.csv);
+            model.analyse();
+        }
+    }
+
+    /**
+     * A model of the page on which the stages up to <code>detectWordLines</code> have
+     * just been run
+     */
+    @State(Scope.Thread)
+    public static class LinesDetected
+    {
+        Model model;
+
+        @Setup(Level.Trial)
+        public void load(SamplePage sample)
+                throws IOException
+        {
+            model = new Model();
+            model.readCSV(sample.csv);
+            model.detectNonWords();
+        }
+
+        @Setup(Level.Invocation)
+        public void detectLines()
+        {
+            model.detectWords();
+            model.detectWordLines();
+        }
+    }
+
+    @Benchmark
+    public Map<Model.LineTypes, ArrayList<Component>> endToEnd(SamplePage sample)
+            throws Exception
+    {
+        Model model = new Model();
+        model.loadCSV(sample.csv);
+        return model.getFinalBounds();
+    }
+
+    @Benchmark
+    public Model readCSV(SamplePage sample)
+            throws IOException
+    {
+        Model model = new Model();
+        model.readCSV(sample.csv);
+        return model;
+    }
+
+    @Benchmark
+    public Model detectNonWords(Analysed analysed)
+    {
+        analysed.model.detectNonWords();
+        return analysed.model;
+    }
+
+    @Benchmark
+    public Model detectWords(Analysed analysed)
+    {
+        analysed.model.detectWords();
+        return analysed.model;
+    }
+
+    @Benchmark
+    public Model detectWordLines(Analysed analysed)
+    {
+        analysed.model.detectWordLines();
+        return analysed.model;
+    }
+
+    @Benchmark
+    public Model combineWordParagraphs(LinesDetected detected)
+    {
+        detected.model.combineWordParagraphs();
+        return detected.model;
+    }
+
+    @Benchmark
+    public Map<Model.LineTypes, ArrayList<Component>> findFinalBounds(Analysed analysed)
+    {
+        analysed.model.findFinalBounds();
+        return analysed.model.getFinalBounds();
+    }
+
+    public static void main(String[] args)
+            throws RunnerException
+    {
+        new Runner(new OptionsBuilder().include(PipelineBenchmark.class.getName()).build()).run();
+    }
+}
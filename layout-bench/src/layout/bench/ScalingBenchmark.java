@@ -0,0 +1,172 @@
+package layout.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import layout.model.Component;
+import layout.model.Model;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Benchmarks the layout analysis of synthetic pages of increasing numbers of components
+ * (see <code>SyntheticPage</code>), to show how each stage scales with the size of the
+ * page
+ * <p/>
+ * The stages are measured as in <code>PipelineBenchmark</code>: each on a model in which
+ * all the previous stages have already been run, with the lines detected again before
+ * every call to <code>combineWordParagraphs</code>, outside the measured time.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScalingBenchmark
+{
+    private static final long SEED = 20130620L;
+
+    @State(Scope.Thread)
+    public static class Page
+    {
+        @Param({"500", "1000", "2000", "5000", "10000", "20000", "50000"})
+        public int components;
+
+        File csv;
+
+        @Setup(Level.Trial)
+        public void generate()
+                throws IOException
+        {
+            csv = File.createTempFile("synthetic_", ".csv");
+            SyntheticPage.write(csv, components, SEED);
+        }
+
+        @TearDown(Level.Trial)
+        public void delete()
+        {
+            csv.delete();
+        }
+    }
+
+    /**
+     * A model of the page on which every stage has been run
+     */
+    @State(Scope.Thread)
+    public static class Analysed
+    {
+        Model model;
+
+        @Setup(Level.Trial)
+        public void analyse(Page page)
+                throws IOException
+        {
+            model = new Model();
+            model.readCSV(page.csv);
+            model.analyse();
+        }
+    }
+
+    /**
+     * A model of the page on which the stages up to <code>detectWordLines</code> have
+     * just been run
+     */
+    @State(Scope.Thread)
+    public static class LinesDetected
+    {
+        Model model;
+
+        @Setup(Level.Trial)
+        public void load(Page page)
+                throws IOException
+        {
+            model = new Model();
+            model.readCSV(page.csv);
+            model.detectNonWords();
+        }
+
+        @Setup(Level.Invocation)
+        public void detectLines()
+        {
+            model.detectWords();
+            model.detectWordLines();
+        }
+    }
+
+    @Benchmark
+    public Map<Model.LineTypes, ArrayList<Component>> endToEnd(Page page)
+            throws Exception
+    {
+        Model model = new Model();
+        model.loadCSV(page.csv);
+        return model.getFinalBounds();
+    }
+
+    @Benchmark
+    public Model readCSV(Page page)
+            throws IOException
+    {
+        Model model = new Model();
+        model.readCSV(page.csv);
+        return model;
+    }
+
+    @Benchmark
+    public Model detectNonWords(Analysed analysed)
+    {
+        analysed.model.detectNonWords();
+        return analysed.model;
+    }
+
+    @Benchmark
+    public Model detectWords(Analysed analysed)
+    {
+        analysed.model.detectWords();
+        return analysed.model;
+    }
+
+    @Benchmark
+    public Model detectWordLines(Analysed analysed)
+    {
+        analysed.model.detectWordLines();
+        return analysed.model;
+    }
+
+    @Benchmark
+    public Model combineWordParagraphs(LinesDetected detected)
+    {
+        detected.model.combineWordParagraphs();
+        return detected.model;
+    }
+
+    @Benchmark
+    public Map<Model.LineTypes, ArrayList<Component>> findFinalBounds(Analysed analysed)
+    {
+        analysed.model.findFinalBounds();
+        return analysed.model.getFinalBounds();
+    }
+
+    public static void main(String[] args)
+            throws RunnerException
+    {
+        new Runner(new OptionsBuilder().include(ScalingBenchmark.class.getName()).build()).run();
+    }
+}
@@ -0,0 +1,107 @@
+package layout.bench;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Generates the CSV file of an artificial page with any number of connected components
+ * <p/>
+ * The page is laid out like the manuscript pages: lines of words made of letters of
+ * similar height separated by small gaps, with every few lines a line of irregularly
+ * sized and spaced components standing in for a displayed expression. The width of the
+ * page is fixed and it grows downwards to fit the requested number of components, so
+ * the density of the page stays the same as the component count grows.
+ * <p/>
+ * The file has the same columns as the real CSV files. The features are all 0 as the
+ * layout analysis does not use them.
+ */
+public class SyntheticPage
+{
+    public static final int PAGE_WIDTH = 3400;
+
+    private static final int MARGIN = 300;
+    private static final int LINE_PITCH = 80;
+    private static final int MATH_LINE_EVERY = 6;
+    private static final int NUM_FEATURES = 26;
+
+    private static final String HEADER = "src_image,page,page_width,page_height,cc_image,x,y,w,h,aspect,m00,"
+            + "n20,n11,n02,n30,n21,n12,n03,i1,i2,i3,i4,i5,i6,i7,i8,z00,z01,z02,z10,z11,z12,z20,z21,z22";
+
+    /**
+     * Writes a page of <code>numComponents</code> components. The same arguments always
+     * produce the same page.
+     *
+     * @param csv           the file to write
+     * @param numComponents the number of components on the page
+     * @param seed          the seed of the random layout
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(File csv, int numComponents, long seed)
+            throws IOException
+    {
+        Random random = new Random(seed);
+        int[] x = new int[numComponents];
+        int[] y = new int[numComponents];
+        int[] w = new int[numComponents];
+        int[] h = new int[numComponents];
+
+        int n = 0;
+        int line = 0;
+        while (n < numComponents)
+        {
+            int baseline = MARGIN + line * LINE_PITCH + 50;
+            boolean math = line % MATH_LINE_EVERY == MATH_LINE_EVERY - 1;
+            int left = MARGIN + (math ? 400 + random.nextInt(400) : random.nextInt(40));
+            int right = PAGE_WIDTH - MARGIN - (math ? 400 + random.nextInt(400) : 0);
+
+            while (n < numComponents && left < right)
+            {
+                int wordLength = math ? 1 + random.nextInt(3) : 2 + random.nextInt(8);
+                for (int i = 0; i < wordLength && n < numComponents && left < right; i++)
+                {
+                    int height = math ? 10 + random.nextInt(90) : 35 + random.nextInt(20);
+                    w[n] = math ? 10 + random.nextInt(60) : 18 + random.nextInt(22);
+                    h[n] = height;
+                    x[n] = left;
+                    // Letters sit on the baseline, some with descenders
+                    y[n] = baseline - height + (!math && random.nextInt(5) == 0 ? 15 : 0)
+                            + (math ? random.nextInt(40) - 20 : 0);
+                    left += w[n] + (math ? 20 + random.nextInt(40) : random.nextInt(8));
+                    n++;
+                }
+                left += math ? 40 + random.nextInt(80) : 30 + random.nextInt(30);
+            }
+            line++;
+        }
+        int pageHeight = MARGIN * 2 + line * LINE_PITCH;
+
+        StringBuilder zeros = new StringBuilder();
+        for (int f = 0; f < NUM_FEATURES; f++)
+            zeros.append(",0");
+
+        Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(csv), StandardCharsets.US_ASCII));
+        try
+        {
+            out.write(HEADER);
+            out.write('\n');
+            for (int i = 0; i < numComponents; i++)
+            {
+                out.write("\"synthetic.png\",1," + PAGE_WIDTH + "," + pageHeight + ",");
+                out.write(String.format("\"c%05d_x%04d_y%04d.tif\",", i, x[i], y[i]));
+                out.write(x[i] + "," + y[i] + "," + w[i] + "," + h[i]);
+                out.write(zeros.toString());
+                out.write('\n');
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+}
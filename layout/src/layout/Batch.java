@@ -0,0 +1,180 @@
+package layout;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import layout.model.Model;
+import layout.utils.JsonWriter;
+
+/**
+ * Headless batch version of the layout analysis
+ * <p />
+ * Analyses every page of a directory of <code>image_NNNN.png</code>/<code>image_NNNN.csv</code>
+ * pairs and writes the areas found on each page as JSON (see <code>Model.writeJSON</code>).
+ * Only the CSV files are needed for the analysis, so the page images are never loaded
+ * and no part of the GUI is used.
+ * <p />
+ * By default one <code>image_NNNN.json</code> document is written per page into the
+ * output directory. With <code>--jsonl</code> the output is instead a single JSON Lines
+ * file holding one record per page, in the order the pages finish.
+ * <p />
+ * Each page is analysed by its own <code>Model</code> on a work-stealing pool with a
+ * bounded number of threads.
+ * <p />
+ * Usage: <code>java layout.Batch [--jsonl] &lt;input directory&gt; &lt;output&gt; [threads]</code>
+ */
+public class Batch
+{
+    private static final String PAGE_PATTERN = "image_\\d+\\.csv";
+
+    public static void main(String[] args)
+    {
+        System.setProperty("java.awt.headless", "true");
+
+        boolean jsonLines = args.length > 0 && args[0].equals("--jsonl");
+        int first = jsonLines ? 1 : 0;
+        if (args.length - first < 2 || args.length - first > 3)
+        {
+            System.err.println("Usage: java layout.Batch [--jsonl] <input directory> <output> [threads]");
+            System.exit(2);
+        }
+
+        File inputDir = new File(args[first]);
+        File output = new File(args[first + 1]);
+        int threads = args.length - first == 3 ? Integer.parseInt(args[first + 2])
+                                               : Runtime.getRuntime().availableProcessors();
+
+        if (!inputDir.isDirectory())
+        {
+            System.err.println("\"" + inputDir + "\" is not a directory");
+            System.exit(1);
+        }
+        if (!jsonLines && !output.isDirectory() && !output.mkdirs())
+        {
+            System.err.println("Could not create output directory \"" + output + "\"");
+            System.exit(1);
+        }
+
+        try
+        {
+            System.exit(run(inputDir, output, jsonLines, threads) ? 0 : 1);
+        }
+        catch (IOException ioe)
+        {
+            System.err.println(ioe.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Analyses all the pages in <code>inputDir</code>
+     *
+     * @param output    the directory to write one JSON document per page into or, if
+     *                  <code>jsonLines</code> is set, the JSON Lines file to write
+     * @param jsonLines whether to write a single JSON Lines file
+     * @return <code>true</code> if every page was analysed successfully
+     * @throws IOException if <code>inputDir</code> cannot be listed, or the JSON Lines file
+     *                     cannot be opened or closed
+     */
+    public static boolean run(File inputDir, File output, boolean jsonLines, int threads)
+            throws IOException
+    {
+        File[] pages = inputDir.listFiles(new FileFilter()
+        {
+            public boolean accept(File f)
+            {
+                return f.isFile() && f.getName().matches(PAGE_PATTERN);
+            }
+        });
+        if (pages == null)
+            throw new IOException("Could not list the directory \"" + inputDir + "\"");
+        Arrays.sort(pages);
+
+        final JsonWriter lines = jsonLines ? JsonWriter.open(output) : null;
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (final File page : pages)
+        {
+            final File document = jsonLines ? null : new File(output, baseName(page) + ".json");
+            tasks.add(new Callable<Void>()
+            {
+                public Void call() throws Exception
+                {
+                    Model model = new Model();
+                    model.loadCSV(page);
+                    if (lines != null)
+                    {
+                        synchronized (lines)
+                        {
+                            model.writeJSON(lines, baseName(page));
+                            lines.newLine();
+                        }
+                    }
+                    else
+                    {
+                        JsonWriter out = JsonWriter.open(document);
+                        try
+                        {
+                            model.writeJSON(out, baseName(page));
+                            out.newLine();
+                        }
+                        finally
+                        {
+                            out.close();
+                        }
+                    }
+                    return null;
+                }
+            });
+        }
+
+        long start = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        int failed = 0;
+        try
+        {
+            List<Future<Void>> results = pool.invokeAll(tasks);
+            for (int i = 0; i < results.size(); i++)
+            {
+                try
+                {
+                    results.get(i).get();
+                }
+                catch (ExecutionException ee)
+                {
+                    failed++;
+                    System.err.println(pages[i].getName() + ": " + ee.getCause());
+                }
+            }
+        }
+        catch (InterruptedException ie)
+        {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        finally
+        {
+            pool.shutdown();
+            if (lines != null)
+                lines.close();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("Analysed %d pages (%d failed) in %.2f s using %d threads: %.1f pages/s%n",
+                          pages.length - failed, failed, seconds, threads, (pages.length - failed) / seconds);
+        return failed == 0;
+    }
+
+    private static String baseName(File f)
+    {
+        String name = f.getName();
+        return name.substring(0, name.lastIndexOf('.'));
+    }
+}
@@ -5,12 +5,19 @@ import java.awt.Rectangle;
 public class Component {
 	
 	private Rectangle data;
+	private int index = -1;
 	
 	public Component(int x, int y, int w, int h)
 	{
 		data = new Rectangle(x, y, w, h);
 	}
 	
+	Component(int index, int x, int y, int w, int h)
+	{
+		this(x, y, w, h);
+		this.index = index;
+	}
+	
 	public Component(Rectangle word) {
 		data = new Rectangle((int)word.getX(), (int)word.getY(), (int)word.getWidth(), (int)word.getHeight());
 	}
@@ -19,4 +26,13 @@ public class Component {
 	{
 		return data;
 	}
+	
+	/**
+	 * @return the position of this component in the page's component list, or -1 if
+	 *         it is a derived box (word, line, area) rather than a connected component
+	 */
+	int getIndex()
+	{
+		return index;
+	}
 }
@@ -0,0 +1,49 @@
+package layout.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+import layout.model.Model.LineTypes;
+
+/**
+ * A horizontal band of the page holding the letters of (usually) one text line.
+ * <p/>
+ * <code>top</code> and <code>bottom</code> are the inclusive vertical extent of the
+ * band. They are only changed through <code>LineBands</code> while the bands are being
+ * built, except when paragraphs are combined, at which point the bands are no longer
+ * looked up by position.
+ */
+class LineBand
+{
+	int top;
+	int bottom;
+
+	/** The letters in the band */
+	final List<Component> members = new ArrayList<Component>();
+
+	/** The letters in the band that have no letter immediately to their left */
+	final List<Component> possibleStarts = new ArrayList<Component>();
+
+	/**
+	 * Maps the position in <code>possibleStarts</code> at which each segment of the line
+	 * begins to the type of that segment
+	 */
+	final TreeMap<Integer, LineTypes> segmentTypes = new TreeMap<Integer, LineTypes>();
+
+	LineBand(int top, int bottom)
+	{
+		this.top = top;
+		this.bottom = bottom;
+	}
+
+	int getHeight()
+	{
+		return bottom - top;
+	}
+
+	boolean overlaps(int y0, int y1)
+	{
+		return top <= y1 && bottom >= y0;
+	}
+}
@@ -0,0 +1,106 @@
+package layout.model;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * The set of line bands of a page, kept sorted by top and pairwise disjoint.
+ * <p/>
+ * Adding a letter either extends the band it overlaps or creates a new band. If
+ * extending a band makes it overlap its neighbours, they are merged into it, so a
+ * band is always found with a binary search on its top.
+ */
+class LineBands implements Iterable<LineBand>
+{
+	private List<LineBand> bands = new ArrayList<LineBand>();
+
+	/**
+	 * Finds the highest band that overlaps the vertical range <code>[y0, y1]</code>
+	 *
+	 * @return the band, or <code>null</code> if no band overlaps the range
+	 */
+	LineBand find(int y0, int y1)
+	{
+		int i = firstOverlapping(y0, y1);
+		return i < 0 ? null : bands.get(i);
+	}
+
+	private int firstOverlapping(int y0, int y1)
+	{
+		// Bands are disjoint, so their bottoms are sorted too: find the first band
+		// ending at or below y0 and check that it starts before y1
+		int lo = 0;
+		int hi = bands.size();
+		while (lo < hi)
+		{
+			int mid = (lo + hi) >>> 1;
+			if (bands.get(mid).bottom < y0)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		if (lo < bands.size() && bands.get(lo).top <= y1)
+			return lo;
+		return -1;
+	}
+
+	/**
+	 * Adds a letter to the band its vertical extent overlaps, creating or merging bands
+	 * as necessary
+	 *
+	 * @return the band now holding the letter
+	 */
+	LineBand add(Component c)
+	{
+		int y0 = c.getData().y;
+		int y1 = c.getData().y + c.getData().height;
+		int i = firstOverlapping(y0, y1);
+		LineBand band;
+
+		if (i < 0)
+		{
+			band = new LineBand(y0, y1);
+			int lo = 0;
+			int hi = bands.size();
+			while (lo < hi)
+			{
+				int mid = (lo + hi) >>> 1;
+				if (bands.get(mid).top < y0)
+					lo = mid + 1;
+				else
+					hi = mid;
+			}
+			bands.add(lo, band);
+		}
+		else
+		{
+			band = bands.get(i);
+			band.top = Math.min(band.top, y0);
+			band.bottom = Math.max(band.bottom, y1);
+
+			// Only bands below can start overlapping: bands above end before y0
+			while (i + 1 < bands.size() && bands.get(i + 1).top <= band.bottom)
+			{
+				LineBand next = bands.remove(i + 1);
+				band.bottom = Math.max(band.bottom, next.bottom);
+				band.members.addAll(next.members);
+				band.possibleStarts.addAll(next.possibleStarts);
+			}
+		}
+
+		band.members.add(c);
+		return band;
+	}
+
+	int size()
+	{
+		return bands.size();
+	}
+
+	@Override
+	public Iterator<LineBand> iterator()
+	{
+		return bands.iterator();
+	}
+}
@@ -0,0 +1,107 @@
+package layout.model;
+
+import java.util.Arrays;
+
+/**
+ * A minimal open addressing hash map from primitive <code>long</code> keys to values,
+ * used to look up words by the packed position of their first letter without boxing
+ * or identity-hashed array keys.
+ */
+class LongHashMap<V>
+{
+	private static final float LOAD_FACTOR = 0.5f;
+
+	private long[] keys;
+	private Object[] values;
+	private boolean[] used;
+	private int size = 0;
+
+	LongHashMap()
+	{
+		this(16);
+	}
+
+	LongHashMap(int expectedSize)
+	{
+		int capacity = 16;
+		while (capacity * LOAD_FACTOR < expectedSize)
+			capacity <<= 1;
+		keys = new long[capacity];
+		values = new Object[capacity];
+		used = new boolean[capacity];
+	}
+
+	/**
+	 * Packs a position into a single key
+	 */
+	static long key(int x, int y)
+	{
+		return ((long) x << 32) | (y & 0xffffffffL);
+	}
+
+	private int slot(long key)
+	{
+		long h = key * 0x9E3779B97F4A7C15L;
+		int mask = keys.length - 1;
+		int i = (int) (h ^ (h >>> 32)) & mask;
+		while (used[i] && keys[i] != key)
+			i = (i + 1) & mask;
+		return i;
+	}
+
+	@SuppressWarnings("unchecked")
+	V get(long key)
+	{
+		int i = slot(key);
+		return used[i] ? (V) values[i] : null;
+	}
+
+	void put(long key, V value)
+	{
+		int i = slot(key);
+		if (!used[i])
+		{
+			if (size + 1 > keys.length * LOAD_FACTOR)
+			{
+				grow();
+				i = slot(key);
+			}
+			used[i] = true;
+			keys[i] = key;
+			size++;
+		}
+		values[i] = value;
+	}
+
+	private void grow()
+	{
+		long[] oldKeys = keys;
+		Object[] oldValues = values;
+		boolean[] oldUsed = used;
+		keys = new long[oldKeys.length * 2];
+		values = new Object[oldKeys.length * 2];
+		used = new boolean[oldKeys.length * 2];
+		for (int i = 0; i < oldKeys.length; i++)
+		{
+			if (oldUsed[i])
+			{
+				int j = slot(oldKeys[i]);
+				used[j] = true;
+				keys[j] = oldKeys[i];
+				values[j] = oldValues[i];
+			}
+		}
+	}
+
+	int size()
+	{
+		return size;
+	}
+
+	void clear()
+	{
+		Arrays.fill(used, false);
+		Arrays.fill(values, null);
+		size = 0;
+	}
+}
@@ -3,18 +3,19 @@ package layout.model;
 import java.awt.Dimension;
 import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
+import layout.utils.ComponentCSV;
 import layout.utils.ImageFile;
+import layout.utils.JsonWriter;
 import layout.utils.UnsupportedImageTypeException;
 
 /**
@@ -40,22 +41,35 @@ public class Model
     private List<Rectangle> rects = new ArrayList<Rectangle>();
     private List<Component> components = new ArrayList<Component>();
     private List<Component> words = new ArrayList<Component>();
+    private List<int[]> wordMembers = new ArrayList<int[]>();
+    private int pageWidth = 0;
+    private int pageHeight = 0;
     private Component biggestBox = null;
     
     private int minXDistForWord = -2;
     private int maxXDistForWord = 15;
     
     private List<Component> nonLetters;
+    private boolean[] isNonLetter;
+    private PageComponents page;
+    private SpatialIndex index;
     
-    private Map<int[], ArrayList<Component>> sortedWordComponents;
-    private Map<int[], ArrayList<Component>> partitionedPossibleStarts;
-    private Map<int[], ArrayList<Component>> wordLetters;
-    private Map<int[], Map<Integer, LineTypes>> lineTypes;
+    private LineBands lines;
+    private LongHashMap<int[]> wordLetters;
     
-    private List<ArrayList<int[]>> wordParagraphs;
-    private List<ArrayList<int[]>> mathLines;
+    private List<ArrayList<LineBand>> wordParagraphs;
+    private List<ArrayList<LineBand>> mathLines;
     
     private Map<LineTypes, ArrayList<Component>> finalBounds;
+    private Map<LineTypes, SpatialIndex> finalBoundsIndex;
+    
+    private static final Comparator<Component> LEFT_TO_RIGHT = new Comparator<Component>()
+    {
+    	public int compare(Component a, Component b)
+    	{
+    		return Integer.compare(a.getData().x, b.getData().x);
+    	}
+    };
 
     public Model()
     {
@@ -65,45 +79,55 @@ public class Model
     {
     	return finalBounds;
     }
-    
-    public List<ArrayList<int[]>> getWordParagraphs()
+
+    public BufferedImage getImage()
     {
-    	return wordParagraphs;
+        return image;
     }
-    
-    public List<ArrayList<int[]>> getMathLines()
+
+    public List<Rectangle> getRects()
     {
-    	return mathLines;
+        return rects;
     }
     
-    public Map<int[], ArrayList<Component>> getWordLetters()
+    public List<Component> getComponents()
     {
-    	return wordLetters;
+    	return components;
     }
     
-    public Map<int[], ArrayList<Component>> getPartitionedPossibleStarts()
+    /**
+     * Finds the components whose boxes overlap a region of the page, e.g. to draw only
+     * the components in view
+     *
+     * @param region the region, in page coordinates
+     * @return the components, in the order of <code>getComponents()</code>
+     */
+    public List<Component> getComponentsIn(Rectangle region)
     {
-    	return partitionedPossibleStarts;
+    	return inRegion(index, components, region);
     }
     
-    public Map<int[], Map<Integer, LineTypes>> getLineTypes()
-    {
-    	return lineTypes;
-    }
-
-    public BufferedImage getImage()
-    {
-        return image;
-    }
-
-    public List<Rectangle> getRects()
+    /**
+     * Finds the final bounds of one type that overlap a region of the page
+     *
+     * @param region the region, in page coordinates
+     * @return the bounds, in the order of <code>getFinalBounds()</code>
+     */
+    public List<Component> getFinalBoundsIn(LineTypes type, Rectangle region)
     {
-        return rects;
+    	if(finalBounds == null)
+    		return new ArrayList<Component>();
+    	return inRegion(finalBoundsIndex.get(type), finalBounds.get(type), region);
     }
     
-    public List<Component> getComponents()
+    private static List<Component> inRegion(SpatialIndex index, List<Component> all, Rectangle region)
     {
-    	return components;
+    	List<Component> out = new ArrayList<Component>();
+    	if(index == null)
+    		return out;
+    	for(int i : index.query(region.x, region.y, region.x + region.width, region.y + region.height))
+    		out.add(all.get(i));
+    	return out;
     }
     
     public List<Component> getWords()
@@ -159,71 +183,101 @@ public class Model
     public void loadImage(File file)
             throws IOException, UnsupportedImageTypeException
     {
-        ImageFile newImageFile = new ImageFile(file);
-        int numImages = newImageFile.getNumImages();
-        if (numImages == 0)
-            throw new IOException("Image file contains no images");
-        BufferedImage bi = newImageFile.getBufferedImage(0);
-        setImage(bi);
+        ImageFile newImageFile = ImageFile.open(file);
+        try
+        {
+            int numImages = newImageFile.getNumImages();
+            if (numImages == 0)
+                throw new IOException("Image file contains no images");
+            BufferedImage bi = newImageFile.getBufferedImage(0);
+            setImage(bi);
+        }
+        finally
+        {
+            newImageFile.close();
+        }
     }
     
+    /**
+     * Loads the connected components of the page from the CSV file that accompanies the
+     * given image file and analyses the layout of the page
+     *
+     * @param file the image file (or the CSV file itself) of the page
+     */
     public void loadCSV(File file)
     		throws IOException, UnsupportedImageTypeException
+    {
+    	readCSV(file);
+    	analyse();
+    }
+    
+    /**
+     * Loads the connected components of the page from the CSV file that accompanies the
+     * given image file, without analysing them
+     *
+     * @param file the image file (or the CSV file itself) of the page
+     */
+    public void readCSV(File file)
+    		throws IOException
     {
     	String imagePath = file.getPath();
     	String CSVPath = imagePath.substring(0, imagePath.lastIndexOf('.')) + ".csv";
-    	BufferedReader reader = new BufferedReader(new FileReader(CSVPath));
+    	ComponentCSV table = ComponentCSV.read(new File(CSVPath));
+    	page = new PageComponents(table);
+    	int[] x = page.x;
+    	int[] y = page.y;
+    	int[] w = page.w;
+    	int[] h = page.h;
     	
     	components.clear();
-    	words.clear();
-    	String line = reader.readLine();
     	int maxArea = 0;
-    	while ((line = reader.readLine()) != null){
-    		String[] cols = line.split(",");
-    		
-    		int x = Integer.parseInt(cols[5]);
-    		int y = Integer.parseInt(cols[6]);
-    		int w = Integer.parseInt(cols[7]);
-    		int h = Integer.parseInt(cols[8]);
-    		
-    		if(w * h > maxArea){
-    			maxArea = w * h;
-    			biggestBox = new Component(x, y, w, h);
+    	for(int i = 0; i < page.size; i++){
+    		if(w[i] * h[i] > maxArea){
+    			maxArea = w[i] * h[i];
+    			biggestBox = new Component(x[i], y[i], w[i], h[i]);
     		}
     		
-    		components.add(new Component(x, y, w, h));
+    		components.add(new Component(i, x[i], y[i], w[i], h[i]));
     	}
     	
-    	finalBounds = new HashMap<LineTypes, ArrayList<Component>>();
+    	if(page.size > 0){
+    		pageWidth = table.getIntColumn("page_width")[0];
+    		pageHeight = table.getIntColumn("page_height")[0];
+    	}
     	
-    	reader.close();
+    	index = new SpatialIndex(page);
+    }
+    
+    /**
+     * Runs all the stages of the layout analysis over the loaded components. Each stage
+     * only depends on the results of the previous ones, so they can also be run one at
+     * a time.
+     */
+    public void analyse()
+    {
     	detectNonWords();
     	detectWords();
     	detectWordLines();
     	combineWordParagraphs();
-    	
-    	finalBounds.put(LineTypes.MATH, new ArrayList<Component>());
-		for(ArrayList<int[]> aai : getMathLines())
-			finalBounds.get(LineTypes.MATH).addAll(findFinalBoundsOfType(aai, LineTypes.MATH));
-
-		finalBounds.put(LineTypes.WORD, new ArrayList<Component>());
-		for(ArrayList<int[]> aai : getWordParagraphs())
-			finalBounds.get(LineTypes.WORD).addAll(findFinalBoundsOfType(aai, LineTypes.WORD));
+    	findFinalBounds();
     }
     
     public void detectNonWords()
     {
     	nonLetters = new ArrayList<Component>();
+    	isNonLetter = new boolean[page.size];
     	
-    	for(Component c : components)
-    		if(!isLetter(c))
-    			nonLetters.add(c);
+    	for(int i = 0; i < page.size; i++)
+    		if(!isLetter(i)){
+    			nonLetters.add(components.get(i));
+    			isNonLetter[i] = true;
+    		}
     }
     
     public boolean intersectsNonLetter(Component inp)
     {
-    	for(Component c : nonLetters)
-    		if(c.getData().intersects(inp.getData()))
+    	for(int i : index.intersecting(inp.getData()))
+    		if(isNonLetter[i])
     			return true;
     	
     	return false;
@@ -232,160 +286,129 @@ public class Model
     
     public void detectWords()
     {
-    	List<Component> listCopy = new ArrayList<Component>();
-    	sortedWordComponents = new HashMap<int[], ArrayList<Component>>();
-    	partitionedPossibleStarts = new HashMap<int[], ArrayList<Component>>();
-    	wordLetters = new HashMap<int[], ArrayList<Component>>();
-    	for(Component c : components){
-    		listCopy.add(c);
-    	}
+    	words.clear();
+    	wordMembers.clear();
+    	lines = new LineBands();
+    	wordLetters = new LongHashMap<int[]>(page.size);
     	
-    	for(int i = 0; i < listCopy.size(); i++){
-    		Component out = listCopy.get(i);
-    		
-    		if(nonLetters.contains(out) || intersectsNonLetter(out))
+    	for(Component out : components){
+    		if(isNonLetter[out.getIndex()] || intersectsNonLetter(out))
     			continue;
     		
-    		boolean dictionaryHasHeight = false;
-			double objectY = out.getData().getY();
-			double objectHeight = out.getData().getHeight();
-    		
-    		for(int[] heightRange : sortedWordComponents.keySet()){
-    			if((objectY >= heightRange[0] && objectY <= heightRange[1]) || (heightRange[0] >= objectY && heightRange[1] <= (objectY + objectHeight))){
-    				dictionaryHasHeight = true;
-    				sortedWordComponents.get(heightRange).add(out);
-    				
-    				int[] newHeightRange = new int[] {objectY < heightRange[0] ? (int)objectY : heightRange[0], objectY + objectHeight > heightRange[1] ? (int)(objectY + objectHeight) : heightRange[1]}; 
-  					sortedWordComponents.put(newHeightRange, sortedWordComponents.get(heightRange));
-  					sortedWordComponents.remove(heightRange);
-  					partitionedPossibleStarts.put(newHeightRange, partitionedPossibleStarts.get(heightRange));
-  					partitionedPossibleStarts.remove(heightRange);
-  					checkIsPossibleStart(out, partitionedPossibleStarts, newHeightRange);
-  		    		
-    				break;
-    			}
-    		}
-    		
-    		if(!dictionaryHasHeight){
-    			int[] key = new int[] {(int)objectY, (int)(objectY + objectHeight)};
-    			sortedWordComponents.put(key, new ArrayList<Component>());
-    			sortedWordComponents.get(key).add(out);
-    			partitionedPossibleStarts.put(key, new ArrayList<Component>());
-    			checkIsPossibleStart(out, partitionedPossibleStarts, key);
-    		}
+    		checkIsPossibleStart(out.getIndex(), lines.add(out));
     	}
     	
-    	for(ArrayList<Component> ac : partitionedPossibleStarts.values()){
-	    	for(Component c : ac){
-	    		Rectangle word = new Rectangle(c.getData());
-	    		int[] key = null;
-	    		int[] wordLettersKey = new int[] {(int)c.getData().getX(), (int)c.getData().getY()};
-	    		double objectY = c.getData().getY();
-	    		double objectHeight = c.getData().getHeight();
-	    		
-	    		for(int[] heightRange : sortedWordComponents.keySet()){
-	    			if((objectY >= heightRange[0] && objectY <= heightRange[1]) || (heightRange[0] >= objectY && (heightRange[1] <= (objectY + objectHeight)))){
-	    				key = heightRange;
-	    				break;
-	    			}
-	    		}
+    	// Record the line each letter ended up in, after any merging of lines, so that the
+    	// word growing below can tell which candidates from the spatial index are on the line
+    	LineBand[] lineOf = new LineBand[components.size()];
+    	for(LineBand line : lines)
+    		for(Component c : line.members)
+    			lineOf[c.getIndex()] = line;
+    	
+    	for(LineBand line : lines){
+	    	for(Component c : line.possibleStarts){
+	    		int first = c.getIndex();
+	    		int left = page.x[first];
+	    		int top = page.y[first];
+	    		int right = page.maxX(first);
+	    		int bottom = page.maxY(first);
+	    		int[] letters = new int[8];
+	    		int count = 0;
 	    		
-	    		wordLetters.put(wordLettersKey, new ArrayList<Component>());
-	    		wordLetters.get(wordLettersKey).add(c);
-	    		for(int i = 0; i < sortedWordComponents.get(key).size(); i++){
-	    			Component right = sortedWordComponents.get(key).get(i);
-	    			double dx = right.getData().getX() - (word.getMaxX());
-	    			if(dx < maxXDistForWord && dx >= minXDistForWord){
-	    				wordLetters.get(wordLettersKey).add(right);
-	    				double newRight = right.getData().getMaxX(); 
-	    				double newTop = word.getY() > right.getData().getY() ? right.getData().getY() : word.getY();
-	    				double newBottom = word.getY() + word.getHeight() < right.getData().getY() + right.getData().getHeight() ? right.getData().getY() + right.getData().getHeight() : word.getY() + word.getHeight();
-	    				word = new Rectangle((int)word.getX(), (int)newTop, (int)(newRight - word.getX()), (int)(newBottom - newTop));
-	    				i = -1;
-	    			}
+	    		letters[count++] = first;
+	    		int next;
+	    		// The next letter is the lowest numbered member of the line that starts just
+	    		// right of the word
+	    		while((next = nextLetterOfWord(right, line, lineOf)) >= 0){
+	    			if(count == letters.length)
+	    				letters = Arrays.copyOf(letters, count * 2);
+	    			letters[count++] = next;
+	    			right = page.maxX(next);
+	    			top = Math.min(top, page.y[next]);
+	    			bottom = Math.max(bottom, page.maxY(next));
 	    		}
 	    		
-	    		words.add(new Component(word));
+	    		letters = Arrays.copyOf(letters, count);
+	    		wordLetters.put(LongHashMap.key(page.x[first], page.y[first]), letters);
+	    		words.add(new Component(left, top, right - left, bottom - top));
+	    		wordMembers.add(letters);
 	    	}
     	}
 
     }
     
-    private void detectWordLines()
+    /**
+     * Finds the letter that continues a word to the right: the first member of the line
+     * whose left edge lies within the allowed gap after the right edge of the word
+     *
+     * @return the index of the letter, or -1 if the word ends here
+     */
+    private int nextLetterOfWord(int wordRight, LineBand line, LineBand[] lineOf)
     {
-    	lineTypes = new HashMap<int[], Map<Integer, LineTypes>>();
-    	for(int[] key : partitionedPossibleStarts.keySet()){
-			lineTypes.put(key, new HashMap<Integer, LineTypes>());
-			
-    		for(int i = 0; i < partitionedPossibleStarts.get(key).size()-1; i++){
-    			int smallestIndex = i;
-    			for(int j = i; j < partitionedPossibleStarts.get(key).size(); j++){
-    				if(partitionedPossibleStarts.get(key).get(j).getData().getX() < partitionedPossibleStarts.get(key).get(smallestIndex).getData().getX())
-    					smallestIndex = j;
-    			}
-    			
-    			if(!(smallestIndex == i)){
-    				Component temp = partitionedPossibleStarts.get(key).get(smallestIndex);
-    				partitionedPossibleStarts.get(key).set(smallestIndex, partitionedPossibleStarts.get(key).get(i));
-    				partitionedPossibleStarts.get(key).set(i, temp);
-    			}
-    		}
+    	for(int i : index.query(wordRight + minXDistForWord, line.top, wordRight + maxXDistForWord - 1, line.bottom)){
+    		int dx = page.x[i] - wordRight;
+    		if(lineOf[i] == line && dx < maxXDistForWord && dx >= minXDistForWord)
+    			return i;
+    	}
+    	
+    	return -1;
+    }
+    
+    /**
+     * @return the indices of the letters of the word that starts with the given component
+     */
+    private int[] lettersOf(Component start)
+    {
+    	return wordLetters.get(LongHashMap.key(start.getData().x, start.getData().y));
+    }
+    
+    public void detectWordLines()
+    {
+    	for(LineBand line : lines){
+    		List<Component> starts = line.possibleStarts;
+    		Collections.sort(starts, LEFT_TO_RIGHT);
+    		line.segmentTypes.clear();
     		
     		double meanWidth = 0;
-    		for(int i = 0; i < partitionedPossibleStarts.get(key).size(); i++){
-    			meanWidth = (meanWidth * i + partitionedPossibleStarts.get(key).get(i).getData().getWidth()) / (i + 1);
+    		for(int i = 0; i < starts.size(); i++){
+    			meanWidth = (meanWidth * i + starts.get(i).getData().getWidth()) / (i + 1);
     			
     			if(i == 0){
-    				lineTypes.get(key).put(i, null);
+    				line.segmentTypes.put(i, null);
     				continue;
     			}
     			
-    			Rectangle previousWord = null;
-    			
-    			double currentWordX = partitionedPossibleStarts.get(key).get(i).getData().getX();
-    			for(int[] ai : wordLetters.keySet()){
-    				if(ai[0] == (int)partitionedPossibleStarts.get(key).get(i-1).getData().getX() && ai[1] == (int)partitionedPossibleStarts.get(key).get(i-1).getData().getY())
-    					previousWord = getWordBounds(wordLetters.get(ai));
-    			}
+    			double currentWordX = starts.get(i).getData().getX();
+    			Rectangle previousWord = getWordBounds(lettersOf(starts.get(i-1)));
     			
     			if(currentWordX - (previousWord.getMaxX()) > meanWidth * 6){
-    				lineTypes.get(key).put(i, null);
+    				line.segmentTypes.put(i, null);
     			}
     			
     		}
     		
-    		List<Integer> sortedLineTypeIndices = new ArrayList<Integer>(lineTypes.get(key).keySet()); 
-    		Collections.sort(sortedLineTypeIndices);
+    		List<Integer> segmentStarts = new ArrayList<Integer>(line.segmentTypes.keySet()); 
     		
-    		
-    		for(int i = 0; i < sortedLineTypeIndices.size(); i++){
-    			int start = sortedLineTypeIndices.get(i);
-    			int end = i == sortedLineTypeIndices.size() - 1 ? partitionedPossibleStarts.get(key).size() : sortedLineTypeIndices.get(i + 1);
+    		for(int i = 0; i < segmentStarts.size(); i++){
+    			int start = segmentStarts.get(i);
+    			int end = i == segmentStarts.size() - 1 ? starts.size() : segmentStarts.get(i + 1);
     			int numLikelyWords = 0;
     			int numSingleWords = 0;
     			
         		int right = 0;
-        		int left = (int)partitionedPossibleStarts.get(key).get(start).getData().getX();
+        		int left = (int)starts.get(start).getData().getX();
     			
     			for(int j = start; j < end; j++){
 		
-	    			Component c = partitionedPossibleStarts.get(key).get(j);
-	    			
-	    			int[] wordLettersKey = null;
+	    			Component c = starts.get(j);
+	    			int[] letters = lettersOf(c);
 	    			
-	    			for(int[] ai : wordLetters.keySet()){
-	    				if(ai[0] == c.getData().getX() && ai[1] == c.getData().getY()){
-	    					wordLettersKey = ai;
-	    					break;
-	    				}
-	    			}
+	    			Rectangle possibleWordBounds = getWordBounds(letters);
 	    			
-	    			Rectangle possibleWordBounds = getWordBounds(wordLetters.get(wordLettersKey));
-	    			
-	    			if(isWord(wordLetters.get(wordLettersKey)))
+	    			if(isWord(letters))
 	    				numLikelyWords++;
 	    			
-	    			if(wordLetters.get(wordLettersKey).size() <= 2)
+	    			if(letters.length <= 2)
 	    				numSingleWords++;
 	    			
 	    			if(possibleWordBounds != null && possibleWordBounds.getMaxX() > right)
@@ -396,84 +419,65 @@ public class Model
 	    		}
 	    		
 	    		if((numLikelyWords >= 4 && numLikelyWords * 2 > end - start - numSingleWords) || (numLikelyWords >= 1 && Math.round(numLikelyWords * 1.5) >= end - start - numSingleWords && numLikelyWords * 7 >= end - start)) {
-	    			lineTypes.get(key).put(start, LineTypes.WORD);
+	    			line.segmentTypes.put(start, LineTypes.WORD);
 	    		} else {
-	    			lineTypes.get(key).put(start, LineTypes.MATH);
+	    			line.segmentTypes.put(start, LineTypes.MATH);
 	    		}
     		}
     	}
     	
     }
     
-    private void combineWordParagraphs()
+    public void combineWordParagraphs()
     {
-    	wordParagraphs = new ArrayList<ArrayList<int[]>>();
-    	mathLines = new ArrayList<ArrayList<int[]>>();
+    	wordParagraphs = new ArrayList<ArrayList<LineBand>>();
+    	mathLines = new ArrayList<ArrayList<LineBand>>();
     	boolean previousIsWordLine = false;
     	boolean previousIsMathLine = false;
-    	int[] previousKey = null;
-    	
-    	List<int[]> sortedLineTypeKeys = new ArrayList<int[]>();
-    	
-    	for(int[] key : lineTypes.keySet()){
-    		if(sortedLineTypeKeys.size() == 0)
-    			sortedLineTypeKeys.add(key);
-    		
-    		for(int i = 0; i < sortedLineTypeKeys.size(); i++){
-    			if(key[0] < sortedLineTypeKeys.get(i)[0]){
-    				sortedLineTypeKeys.add(i, key);
-    				break;
-    			}
-    			
-    			if(i == sortedLineTypeKeys.size() - 1){
-    				sortedLineTypeKeys.add(key);
-    				break;
-    			}
-    		}
-    	}
+    	LineBand previous = null;
     	
-    	for(int i = 0; i < sortedLineTypeKeys.size(); i++){
+    	// The lines are already sorted from the top of the page down
+    	for(LineBand line : lines){
     		
-    		int[] key = sortedLineTypeKeys.get(i);
-    		if(lineTypes.get(key).containsValue(LineTypes.WORD)){
-    			if(previousIsWordLine && wordParagraphs.size() > 0 && key[0] - previousKey[1] < (key[1] - key[0]) / 2.5){
-    				wordParagraphs.get(wordParagraphs.size() - 1).add(key);
+    		if(line.segmentTypes.containsValue(LineTypes.WORD)){
+    			if(previousIsWordLine && wordParagraphs.size() > 0 && line.top - previous.bottom < line.getHeight() / 2.5){
+    				wordParagraphs.get(wordParagraphs.size() - 1).add(line);
     				previousIsMathLine = false;
     			} else {
-    				wordParagraphs.add(new ArrayList<int[]>());
-    				wordParagraphs.get(wordParagraphs.size() - 1).add(key);
+    				wordParagraphs.add(new ArrayList<LineBand>());
+    				wordParagraphs.get(wordParagraphs.size() - 1).add(line);
     				previousIsWordLine = true;
     				previousIsMathLine = false;
     			}
-    			previousKey = key;
+    			previous = line;
     		}
     		
-    		if(lineTypes.get(key).containsValue(LineTypes.MATH)){
+    		if(line.segmentTypes.containsValue(LineTypes.MATH)){
     			int primarySize = 0;
     			float ratio = 0;
-    			if(previousKey != null){
-    				if(key[1] - key[0] > previousKey[1] - previousKey[0]){
-    					primarySize = key[1] - key[0];
-    					ratio = (float)(previousKey[1] - previousKey[0]) / primarySize;
+    			if(previous != null){
+    				if(line.getHeight() > previous.getHeight()){
+    					primarySize = line.getHeight();
+    					ratio = (float)previous.getHeight() / primarySize;
     				} else {
-    					primarySize = previousKey[1] - previousKey[0];
-    					ratio = (float)(key[1] - key[0]) / primarySize;    					
+    					primarySize = previous.getHeight();
+    					ratio = (float)line.getHeight() / primarySize;    					
     				}
     			}
-    			if(previousIsWordLine && key[0] - previousKey[1] < (previousKey[1] - previousKey[0]) / 7 && (float)(previousKey[1] - previousKey[0]) / (key[1] - key[0]) > .5){
-    				wordParagraphs.get(wordParagraphs.size() - 1).add(key);
+    			if(previousIsWordLine && line.top - previous.bottom < previous.getHeight() / 7 && (float)previous.getHeight() / line.getHeight() > .5){
+    				wordParagraphs.get(wordParagraphs.size() - 1).add(line);
     				previousIsMathLine = false;
-    				previousKey[1] = key[1];
-    				previousKey[0] = previousKey[1] - (key[1] - key[0]);
-    			} else if(previousIsMathLine && key[0] - previousKey[1] < primarySize / 7 && ratio < .5){
-    				mathLines.get(mathLines.size() - 1).add(key);
-    				previousKey[1] = key[1];
+    				previous.bottom = line.bottom;
+    				previous.top = previous.bottom - line.getHeight();
+    			} else if(previousIsMathLine && line.top - previous.bottom < primarySize / 7 && ratio < .5){
+    				mathLines.get(mathLines.size() - 1).add(line);
+    				previous.bottom = line.bottom;
     			} else {
-    				mathLines.add(new ArrayList<int[]>());
-    				mathLines.get(mathLines.size() - 1).add(key);
+    				mathLines.add(new ArrayList<LineBand>());
+    				mathLines.get(mathLines.size() - 1).add(line);
     				previousIsWordLine = false;
     				previousIsMathLine = true;
-    				previousKey = key;
+    				previous = line;
     			}
     		}
     		
@@ -481,7 +485,24 @@ public class Model
     	
     }
     
-	private ArrayList<Component> findFinalBoundsOfType(ArrayList<int[]> keys, LineTypes lineType)
+    public void findFinalBounds()
+    {
+    	finalBounds = new HashMap<LineTypes, ArrayList<Component>>();
+    	
+    	finalBounds.put(LineTypes.MATH, new ArrayList<Component>());
+		for(ArrayList<LineBand> paragraph : mathLines)
+			finalBounds.get(LineTypes.MATH).addAll(findFinalBoundsOfType(paragraph, LineTypes.MATH));
+
+		finalBounds.put(LineTypes.WORD, new ArrayList<Component>());
+		for(ArrayList<LineBand> paragraph : wordParagraphs)
+			finalBounds.get(LineTypes.WORD).addAll(findFinalBoundsOfType(paragraph, LineTypes.WORD));
+		
+		finalBoundsIndex = new HashMap<LineTypes, SpatialIndex>();
+		for(LineTypes type : finalBounds.keySet())
+			finalBoundsIndex.put(type, new SpatialIndex(new PageComponents(finalBounds.get(type))));
+    }
+    
+	private ArrayList<Component> findFinalBoundsOfType(ArrayList<LineBand> paragraph, LineTypes lineType)
 	{
 		int maxHeight = 0;
 		int index = -1;
@@ -489,97 +510,74 @@ public class Model
 		ArrayList<Component> output = new ArrayList<Component>();
 		
 		if(lineType.equals(LineTypes.MATH)){
-			for(int i = 0; i < keys.size(); i++){
-				if(keys.get(i)[1] - keys.get(i)[0] > maxHeight){
+			for(int i = 0; i < paragraph.size(); i++){
+				if(paragraph.get(i).getHeight() > maxHeight){
 					index = i;
-					maxHeight = keys.get(i)[1] - keys.get(i)[0];
+					maxHeight = paragraph.get(i).getHeight();
 				}
 			}
 		} else {
 			index = 0;
-			maxHeight = keys.get(0)[1] - keys.get(0)[0];
+			maxHeight = paragraph.get(0).getHeight();
 		}
 		
+		LineBand primary = paragraph.get(index);
 		List<int[]> widths = new ArrayList<int[]>();
-		List<Integer> primarySortedLineTypeIndices = new ArrayList<Integer>(getLineTypes().get(keys.get(index)).keySet()); 
-		Collections.sort(primarySortedLineTypeIndices);
+		List<Integer> primarySegmentStarts = new ArrayList<Integer>(primary.segmentTypes.keySet()); 
 		
 		int right = 0;
 		
-		for(int i = 0; i < primarySortedLineTypeIndices.size(); i++){
-			if(getLineTypes().get(keys.get(index)).get(i) == null || !getLineTypes().get(keys.get(index)).get(i).equals(lineType))
+		for(int i = 0; i < primarySegmentStarts.size(); i++){
+			if(primary.segmentTypes.get(i) == null || !primary.segmentTypes.get(i).equals(lineType))
 				continue;
 			
-			int start = primarySortedLineTypeIndices.get(i);
-			int end = i == primarySortedLineTypeIndices.size() - 1 ? getPartitionedPossibleStarts().get(keys.get(index)).size() - 1 : primarySortedLineTypeIndices.get(i + 1) - 1;
-			
-			Component startComponent = getPartitionedPossibleStarts().get(keys.get(index)).get(start);
+			int start = primarySegmentStarts.get(i);
+			int end = i == primarySegmentStarts.size() - 1 ? primary.possibleStarts.size() - 1 : primarySegmentStarts.get(i + 1) - 1;
 			
-			int[] wordLettersKey = null;
+			Component startComponent = primary.possibleStarts.get(start);
 			
-			for(int j = start; j <= end; j++){
-				Component currentComponent = getPartitionedPossibleStarts().get(keys.get(index)).get(j);
-				for(int[] ai : getWordLetters().keySet()){
-					if(ai[0] == currentComponent.getData().getX() && ai[1] == currentComponent.getData().getY()){
-						wordLettersKey = ai;
-						break;
-					}
-				}
-				right = Math.max((int)getWordBounds(getWordLetters().get(wordLettersKey)).getMaxX(), right);
-			}
+			for(int j = start; j <= end; j++)
+				right = Math.max((int)getWordBounds(lettersOf(primary.possibleStarts.get(j))).getMaxX(), right);
 			
 			int left = (int)startComponent.getData().getX();
 			int[] element = new int[] {left, right};
 			
 			widths.add(element);
-			output.add(new Component(left, keys.get(index)[0], right - left, keys.get(index)[1] - keys.get(index)[0]));
+			output.add(new Component(left, primary.top, right - left, primary.getHeight()));
 		}
 		
-		for(int i = 0; i < keys.size(); i++){
+		for(LineBand line : paragraph){
 			
-			int[] key = keys.get(i);
+			List<Integer> segmentStarts = new ArrayList<Integer>(line.segmentTypes.keySet()); 
 			
-			List<Integer> sortedLineTypeIndices = new ArrayList<Integer>(getLineTypes().get(key).keySet()); 
-			Collections.sort(sortedLineTypeIndices);
-			
-			for(int j = 0; j < sortedLineTypeIndices.size(); j++){
-				
-				int start = sortedLineTypeIndices.get(j);
-				int end = j == sortedLineTypeIndices.size() - 1 ? getPartitionedPossibleStarts().get(key).size() - 1 : sortedLineTypeIndices.get(j + 1) - 1;
+			for(int j = 0; j < segmentStarts.size(); j++){
 				
-				Component startComponent = getPartitionedPossibleStarts().get(key).get(start);
+				int start = segmentStarts.get(j);
+				int end = j == segmentStarts.size() - 1 ? line.possibleStarts.size() - 1 : segmentStarts.get(j + 1) - 1;
 				
-				int[] wordLettersKey = null;
+				Component startComponent = line.possibleStarts.get(start);
 				
-				for(int k = start; k <= end; k++){
-					Component currentComponent = getPartitionedPossibleStarts().get(key).get(k);
-					for(int[] ai : getWordLetters().keySet()){
-						if(ai[0] == currentComponent.getData().getX() && ai[1] == currentComponent.getData().getY()){
-							wordLettersKey = ai;
-							break;
-						}
-					}
-					right = Math.max((int)getWordBounds(getWordLetters().get(wordLettersKey)).getMaxX(), right);
-				}
+				for(int k = start; k <= end; k++)
+					right = Math.max((int)getWordBounds(lettersOf(line.possibleStarts.get(k))).getMaxX(), right);
 				
 				int left = (int)startComponent.getData().getX();
 				
 				for(int k = 0; k < widths.size(); k++){
-					Component primary = output.get(k);
+					Component primaryBounds = output.get(k);
 					
-					int outputLeft = (int)primary.getData().getX();
-					int outputRight = (int)primary.getData().getMaxX();
-					int outputTop = (int)primary.getData().getY();
-					int outputBottom = (int)primary.getData().getMaxY();
+					int outputLeft = (int)primaryBounds.getData().getX();
+					int outputRight = (int)primaryBounds.getData().getMaxX();
+					int outputTop = (int)primaryBounds.getData().getY();
+					int outputBottom = (int)primaryBounds.getData().getMaxY();
 					
 		    		if(left < outputLeft)
 		    			outputLeft = left;
 		    		if(right > outputRight)
 		    			outputRight = right;
-		    		if(key[0] < outputTop)
-		    			outputTop = key[0];
-		    		if(key[1] > outputBottom)
-		    			outputBottom = key[1];
+		    		if(line.top < outputTop)
+		    			outputTop = line.top;
+		    		if(line.bottom > outputBottom)
+		    			outputBottom = line.bottom;
 		    		
 		    		output.set(k, new Component(outputLeft, outputTop, outputRight - outputLeft, outputBottom - outputTop));
 				}
@@ -589,18 +587,101 @@ public class Model
 		return output;
 	}
     
-    private void checkIsPossibleStart(Component out, Map<int[], ArrayList<Component>> sortedPossibleStarts, int[] heightRange)
+    /**
+     * Writes the areas found on the page as a single JSON object of the form
+     * <pre>
+     * {"page":..., "width":..., "height":...,
+     *  "areas":[{"category":"WORD"|"MATH", "bounds":{"x":...,"y":...,"w":...,"h":...},
+     *            "components":[...], "areas":[...]}, ...]}
+     * </pre>
+     * where <code>components</code> lists the indices (CSV row numbers, from 0) of the
+     * connected components inside an area and the nested <code>areas</code> of a WORD
+     * area are the words within it.
+     *
+     * @param out  where to write the object
+     * @param name the name to record for the page
+     */
+    public void writeJSON(JsonWriter out, String name)
+    		throws IOException
+    {
+    	SpatialIndex wordIndex = new SpatialIndex(new PageComponents(words));
+    	
+    	out.beginObject();
+    	out.name("page");
+    	out.value(name);
+    	out.name("width");
+    	out.value(pageWidth);
+    	out.name("height");
+    	out.value(pageHeight);
+    	out.name("areas");
+    	out.beginArray();
+    	for(LineTypes type : new LineTypes[] {LineTypes.WORD, LineTypes.MATH}){
+    		for(Component area : finalBounds.get(type)){
+    			Rectangle bounds = area.getData();
+    			writeAreaStart(out, type, bounds);
+    			for(int i : index.query(bounds.x, bounds.y, bounds.x + bounds.width, bounds.y + bounds.height))
+    				if(bounds.contains(page.x[i], page.y[i], page.w[i], page.h[i]))
+    					out.value(i);
+    			out.endArray();
+    			
+    			if(type == LineTypes.WORD){
+    				out.name("areas");
+    				out.beginArray();
+    				for(int w : wordIndex.query(bounds.x, bounds.y, bounds.x + bounds.width, bounds.y + bounds.height)){
+    					if(!bounds.contains(words.get(w).getData()))
+    						continue;
+    					writeAreaStart(out, LineTypes.WORD, words.get(w).getData());
+    					for(int letter : wordMembers.get(w))
+    						out.value(letter);
+    					out.endArray();
+    					out.endObject();
+    				}
+    				out.endArray();
+    			}
+    			out.endObject();
+    		}
+    	}
+    	out.endArray();
+    	out.endObject();
+    }
+    
+    /**
+     * Writes the start of an area object, up to and including the opening of its
+     * component list
+     */
+    private void writeAreaStart(JsonWriter out, LineTypes type, Rectangle bounds)
+    		throws IOException
+    {
+    	out.beginObject();
+    	out.name("category");
+    	out.value(type.name());
+    	out.name("bounds");
+    	out.beginObject();
+    	out.name("x");
+    	out.value(bounds.x);
+    	out.name("y");
+    	out.value(bounds.y);
+    	out.name("w");
+    	out.value(bounds.width);
+    	out.name("h");
+    	out.value(bounds.height);
+    	out.endObject();
+    	out.name("components");
+    	out.beginArray();
+    }
+    
+    private void checkIsPossibleStart(int out, LineBand line)
     {
-    	Iterator<Component> it = components.iterator();
     	boolean isPossibleStart = true;
+    	int left = page.x[out];
+    	int bottom = page.maxY(out);
     	
-  		while(it.hasNext()){
-  			Component in = it.next();
-  			if(!isLetter(in))
+  		for(int i : index.query(left - maxXDistForWord, bottom - 5, left - minXDistForWord, bottom + 5)){
+  			if(isNonLetter[i])
   				continue;
   			
-  			double dx = out.getData().getX() - (in.getData().getMaxX());
-  			double dy = (out.getData().getY() + out.getData().getHeight()) - (in.getData().getY() + in.getData().getHeight());
+  			int dx = left - page.maxX(i);
+  			int dy = bottom - page.maxY(i);
   			if(dx >= minXDistForWord && dx <= maxXDistForWord && Math.abs(dy) <= 5){
   				isPossibleStart = false;
   				break;
@@ -609,61 +690,79 @@ public class Model
   		
   		
   		if(isPossibleStart && isLetter(out)){
-  			sortedPossibleStarts.get(heightRange).add(out);
+  			line.possibleStarts.add(components.get(out));
   		}
     }
     
-    private boolean isLetter(Component box){
-    	return ((box.getData().getWidth() / box.getData().getHeight() > .1) && (box.getData().getWidth() < 500)  || (box.getData().getHeight() < 85) && (box.getData().getHeight() > 15)) && (box.getData().getWidth() > maxXDistForWord - 2);
+    private boolean isLetter(int i){
+    	double width = page.w[i];
+    	double height = page.h[i];
+    	return ((width / height > .1) && (width < 500)  || (height < 85) && (height > 15)) && (width > maxXDistForWord - 2);
     }
     
-    public Rectangle getWordBounds(List<Component> letters)
+    /**
+     * @param letters the indices in <code>getComponents()</code> of the letters of a word
+     * @return the bounding box of the letters
+     */
+    public Rectangle getWordBounds(int[] letters)
     {
-    	double top = letters.get(0).getData().getY();
-    	double right = letters.get(0).getData().getMaxX();
-    	double bottom = letters.get(0).getData().getY() + letters.get(0).getData().getHeight();
-    	double left = letters.get(0).getData().getX();
+    	int[] x = page.x;
+    	int[] y = page.y;
+    	int[] w = page.w;
+    	int[] h = page.h;
+    	int top = y[letters[0]];
+    	int right = x[letters[0]] + w[letters[0]];
+    	int bottom = y[letters[0]] + h[letters[0]];
+    	int left = x[letters[0]];
     	
-    	for(Component c : letters){
-    		if(c.getData().getY() < top)
-    			top = c.getData().getY();
+    	for(int i : letters){
+    		if(y[i] < top)
+    			top = y[i];
     		
-    		if(c.getData().getMaxX() > right)
-    			right = c.getData().getMaxX();
+    		if(x[i] + w[i] > right)
+    			right = x[i] + w[i];
     		
-    		if(c.getData().getY() + c.getData().getHeight() > bottom)
-    			bottom = c.getData().getY() + c.getData().getHeight();
+    		if(y[i] + h[i] > bottom)
+    			bottom = y[i] + h[i];
     		
-    		if(c.getData().getX() < left)
-    			left = c.getData().getX();
+    		if(x[i] < left)
+    			left = x[i];
     	}
 
-    	return new Rectangle((int)left, (int)top, (int)(right-left), (int)(bottom-top));
+    	return new Rectangle(left, top, right - left, bottom - top);
     }
     
-    public float getWordRatio(List<Component> letters)
+    /**
+     * @param letters the indices in <code>getComponents()</code> of the letters of a word
+     * @return the height of the word relative to the mean height of its letters
+     */
+    public float getWordRatio(int[] letters)
     {
-    	double top = letters.get(0).getData().getY();
-    	double bottom = letters.get(0).getData().getY() + letters.get(0).getData().getHeight();
+    	int[] y = page.y;
+    	int[] h = page.h;
+    	int top = y[letters[0]];
+    	int bottom = y[letters[0]] + h[letters[0]];
     	int totalHeight = 0;
     	
-    	for(Component c : letters){
-    		if(c.getData().getY() < top)
-    			top = c.getData().getY();
+    	for(int i : letters){
+    		if(y[i] < top)
+    			top = y[i];
     		
-    		if(c.getData().getY() + c.getData().getHeight() > bottom)
-    			bottom = c.getData().getY() + c.getData().getHeight();
+    		if(y[i] + h[i] > bottom)
+    			bottom = y[i] + h[i];
     		
-    		totalHeight += c.getData().getHeight();
+    		totalHeight += h[i];
     	}
     	
-    	return (float) ((bottom - top)/(totalHeight/letters.size()));
+    	return (float) ((double)(bottom - top)/(totalHeight/letters.length));
     	
     	
     }
     
-    private boolean isWord(List<Component> letters)
+    private boolean isWord(int[] letters)
     {
+    	int[] y = page.y;
+    	int[] h = page.h;
     	double meanTop = 0;
     	double meanBottom = 0;
     	double stdTop = 0;
@@ -671,46 +770,50 @@ public class Model
     	double maxPositionVariance = 6;
     	int maxNumLetterPartition = 0;
     	
-    	Map<Double, ArrayList<Component>> letterPartitions = new HashMap<Double, ArrayList<Component>>();
-    	double heightThreshold = letters.get(0).getData().getHeight() * .2;
+    	// Letters are partitioned by the top they share (within a threshold) with the
+    	// letter that started the partition, which is not itself counted in it
+    	int[] partitionTop = new int[letters.length];
+    	int[] partitionSize = new int[letters.length];
+    	int numPartitions = 0;
+    	double heightThreshold = h[letters[0]] * .2;
     
-    	if(letters.size() <= 2)
+    	if(letters.length <= 2)
     		return false;
     	
-    	for(Component c : letters){
-    		meanTop += c.getData().getY();
-    		meanBottom += c.getData().getY() + c.getData().getHeight();
+    	for(int i : letters){
+    		meanTop += y[i];
+    		meanBottom += y[i] + h[i];
     		
     		boolean isInExistingPartition = false;
-    		for(double d : letterPartitions.keySet()){
-    			if(Math.abs(c.getData().getY() - d) < heightThreshold){
-    				letterPartitions.get(d).add(c);
+    		for(int p = 0; p < numPartitions; p++){
+    			if(Math.abs(y[i] - partitionTop[p]) < heightThreshold){
+    				partitionSize[p]++;
     				isInExistingPartition = true;
     			}
     		}
     		
     		if(!isInExistingPartition){
-    			letterPartitions.put(c.getData().getY(), new ArrayList<Component>());
+    			partitionTop[numPartitions++] = y[i];
     		}
     	}
     	
-    	for(ArrayList<Component> ac : letterPartitions.values()){
-    		if(ac.size() > maxNumLetterPartition)
-    			maxNumLetterPartition = ac.size();
+    	for(int p = 0; p < numPartitions; p++){
+    		if(partitionSize[p] > maxNumLetterPartition)
+    			maxNumLetterPartition = partitionSize[p];
     	}
     	
-    	meanTop /= letters.size();
-    	meanBottom /= letters.size();
+    	meanTop /= letters.length;
+    	meanBottom /= letters.length;
     	
-    	for(Component c : letters){
-    		stdTop += Math.pow(c.getData().getY() - meanTop, 2);
-    		stdBottom += Math.pow(c.getData().getY() + c.getData().getHeight() - meanBottom, 2);
+    	for(int i : letters){
+    		stdTop += Math.pow(y[i] - meanTop, 2);
+    		stdBottom += Math.pow(y[i] + h[i] - meanBottom, 2);
     	}
     	
-    	stdTop /= letters.size();
-    	stdBottom /= letters.size();
+    	stdTop /= letters.length;
+    	stdBottom /= letters.length;
     	
-    	return stdTop < maxPositionVariance || stdBottom < maxPositionVariance || maxNumLetterPartition > letters.size() / 2;
+    	return stdTop < maxPositionVariance || stdBottom < maxPositionVariance || maxNumLetterPartition > letters.length / 2;
     }
 
 }
@@ -0,0 +1,91 @@
+package layout.model;
+
+import java.awt.Rectangle;
+import java.util.List;
+
+import layout.utils.ComponentCSV;
+
+/**
+ * The bounding boxes of the connected components of a page, stored column by column.
+ * <p/>
+ * Component <code>i</code> is the box <code>(x[i], y[i], w[i], h[i])</code>, which is
+ * also the <code>i</code>th row of the CSV file of the page and the <code>i</code>th
+ * element of <code>Model.getComponents()</code>. The layout heuristics address
+ * components by index and loop over these arrays directly rather than going through
+ * a <code>Rectangle</code> per component.
+ * <p/>
+ * When the page was read from a CSV file, the remaining numeric columns are kept as a
+ * row-major feature matrix. The arrays are shared, not copied, and must not be
+ * modified.
+ */
+class PageComponents
+{
+	final int size;
+	final int[] x;
+	final int[] y;
+	final int[] w;
+	final int[] h;
+
+	/** row-major, <code>numFeatures</code> values per component, or <code>null</code> */
+	private final float[] features;
+	private final int numFeatures;
+
+	PageComponents(ComponentCSV table)
+	{
+		size = table.getNumRows();
+		x = table.getIntColumn("x");
+		y = table.getIntColumn("y");
+		w = table.getIntColumn("w");
+		h = table.getIntColumn("h");
+		features = table.getFeatures();
+		numFeatures = table.getNumFeatures();
+	}
+
+	/**
+	 * Copies the bounding boxes of derived components such as words, which have no
+	 * features
+	 */
+	PageComponents(List<Component> boxes)
+	{
+		size = boxes.size();
+		x = new int[size];
+		y = new int[size];
+		w = new int[size];
+		h = new int[size];
+		for (int i = 0; i < size; i++)
+		{
+			Rectangle r = boxes.get(i).getData();
+			x[i] = r.x;
+			y[i] = r.y;
+			w[i] = r.width;
+			h[i] = r.height;
+		}
+		features = null;
+		numFeatures = 0;
+	}
+
+	int maxX(int i)
+	{
+		return x[i] + w[i];
+	}
+
+	int maxY(int i)
+	{
+		return y[i] + h[i];
+	}
+
+	Rectangle bounds(int i)
+	{
+		return new Rectangle(x[i], y[i], w[i], h[i]);
+	}
+
+	int getNumFeatures()
+	{
+		return numFeatures;
+	}
+
+	float getFeature(int i, int f)
+	{
+		return features[i * numFeatures + f];
+	}
+}
@@ -0,0 +1,173 @@
+package layout.model;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+
+/**
+ * A uniform grid over the bounding boxes of the connected components of a page.
+ * <p/>
+ * The cell size is derived from the median component height so that a typical glyph
+ * only falls into a handful of cells. The grid is built once per page and is
+ * read-only afterwards. Components are identified by their index in the
+ * <code>PageComponents</code> the index was built from.
+ * <p/>
+ * Queries return every component whose (closed) bounding box overlaps the (closed)
+ * query window. This is a superset of what <code>Rectangle.intersects</code> would
+ * report, so callers apply their own exact predicate to the candidates.
+ */
+class SpatialIndex
+{
+	private static final int MIN_CELL_SIZE = 8;
+
+	private int originX;
+	private int originY;
+	private int cellSize;
+	private int columns;
+	private int rows;
+
+	/** cellStart[c]..cellStart[c+1]-1 are the positions in cellItems of the components in cell c */
+	private int[] cellStart;
+	private int[] cellItems;
+
+	private int[] x;
+	private int[] y;
+	private int[] maxX;
+	private int[] maxY;
+
+	/** Used to report each component only once per query even if it spans several cells */
+	private int[] seen;
+	private int queryStamp = 0;
+
+	private int[] results = new int[64];
+
+	SpatialIndex(PageComponents page)
+	{
+		int n = page.size;
+		x = new int[n];
+		y = new int[n];
+		maxX = new int[n];
+		maxY = new int[n];
+		seen = new int[n];
+
+		int minX = Integer.MAX_VALUE;
+		int minY = Integer.MAX_VALUE;
+		int limitX = Integer.MIN_VALUE;
+		int limitY = Integer.MIN_VALUE;
+		int[] heights = new int[n];
+		for (int i = 0; i < n; i++)
+		{
+			x[i] = page.x[i];
+			y[i] = page.y[i];
+			maxX[i] = page.maxX(i);
+			maxY[i] = page.maxY(i);
+			heights[i] = page.h[i];
+			minX = Math.min(minX, x[i]);
+			minY = Math.min(minY, y[i]);
+			limitX = Math.max(limitX, maxX[i]);
+			limitY = Math.max(limitY, maxY[i]);
+		}
+
+		if (n == 0)
+		{
+			minX = minY = limitX = limitY = 0;
+			cellSize = MIN_CELL_SIZE;
+		}
+		else
+		{
+			Arrays.sort(heights);
+			cellSize = Math.max(MIN_CELL_SIZE, 2 * heights[n / 2]);
+		}
+
+		originX = minX;
+		originY = minY;
+		columns = (limitX - minX) / cellSize + 1;
+		rows = (limitY - minY) / cellSize + 1;
+
+		// Two passes: count the entries per cell, then fill them in
+		cellStart = new int[columns * rows + 1];
+		for (int i = 0; i < n; i++)
+			for (int row = rowOf(y[i]); row <= rowOf(maxY[i]); row++)
+				for (int col = columnOf(x[i]); col <= columnOf(maxX[i]); col++)
+					cellStart[row * columns + col + 1]++;
+
+		for (int c = 0; c < columns * rows; c++)
+			cellStart[c + 1] += cellStart[c];
+
+		cellItems = new int[cellStart[columns * rows]];
+		int[] fill = Arrays.copyOf(cellStart, columns * rows);
+		for (int i = 0; i < n; i++)
+			for (int row = rowOf(y[i]); row <= rowOf(maxY[i]); row++)
+				for (int col = columnOf(x[i]); col <= columnOf(maxX[i]); col++)
+					cellItems[fill[row * columns + col]++] = i;
+	}
+
+	private int columnOf(int px)
+	{
+		return Math.min(columns - 1, Math.max(0, (px - originX) / cellSize));
+	}
+
+	private int rowOf(int py)
+	{
+		return Math.min(rows - 1, Math.max(0, (py - originY) / cellSize));
+	}
+
+	/**
+	 * Finds all components whose bounding box overlaps the window
+	 * <code>[x0, x1] x [y0, y1]</code> (all bounds inclusive).
+	 *
+	 * @return the indices of the candidate components, in increasing order
+	 */
+	int[] query(int x0, int y0, int x1, int y1)
+	{
+		int count = 0;
+		if (++queryStamp == 0)
+		{
+			Arrays.fill(seen, 0);
+			queryStamp = 1;
+		}
+
+		int lastRow = rowOf(y1);
+		int lastCol = columnOf(x1);
+		for (int row = rowOf(y0); row <= lastRow; row++)
+		{
+			for (int col = columnOf(x0); col <= lastCol; col++)
+			{
+				int cell = row * columns + col;
+				for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++)
+				{
+					int i = cellItems[k];
+					if (seen[i] == queryStamp)
+						continue;
+					seen[i] = queryStamp;
+					if (x[i] <= x1 && maxX[i] >= x0 && y[i] <= y1 && maxY[i] >= y0)
+					{
+						if (count == results.length)
+							results = Arrays.copyOf(results, count * 2);
+						results[count++] = i;
+					}
+				}
+			}
+		}
+
+		int[] out = Arrays.copyOf(results, count);
+		Arrays.sort(out);
+		return out;
+	}
+
+	/**
+	 * Finds all components whose bounding box intersects the given rectangle, in the
+	 * sense of <code>Rectangle.intersects</code>
+	 *
+	 * @return the indices of the intersecting components, in increasing order
+	 */
+	int[] intersecting(Rectangle r)
+	{
+		int[] candidates = query(r.x, r.y, r.x + r.width, r.y + r.height);
+		int count = 0;
+		for (int i : candidates)
+			if (x[i] < r.x + r.width && maxX[i] > r.x && y[i] < r.y + r.height && maxY[i] > r.y
+					&& r.width > 0 && r.height > 0 && maxX[i] > x[i] && maxY[i] > y[i])
+				candidates[count++] = i;
+		return Arrays.copyOf(candidates, count);
+	}
+}
@@ -0,0 +1,455 @@
+package layout.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The contents of a connected component CSV file, parsed into primitive columns
+ * <p/>
+ * The file must start with a header line naming the columns. Columns are stored
+ * according to their name:
+ * <ul>
+ *   <li>the file name columns (<code>src_image</code>, <code>cc_image</code>) are kept
+ *       as positions in the underlying buffer and only turned into <code>String</code>s
+ *       when asked for</li>
+ *   <li>the page and bounding box columns (<code>page</code>, <code>page_width</code>,
+ *       <code>page_height</code>, <code>x</code>, <code>y</code>, <code>w</code>,
+ *       <code>h</code>) are stored as <code>int</code> arrays</li>
+ *   <li>all other columns are features, stored together as a row-major <code>float</code>
+ *       matrix</li>
+ * </ul>
+ * Fields may be quoted (with <code>""</code> standing for a quote inside a quoted field)
+ * and numbers may use scientific notation. Parsing works directly on the bytes of the
+ * (memory mapped) file and allocates nothing per field.
+ */
+public class ComponentCSV
+{
+    private static final String[] STRING_COLUMNS = { "src_image", "cc_image" };
+    private static final String[] INT_COLUMNS = { "page", "page_width", "page_height", "x", "y", "w", "h" };
+
+    private static final double[] POWERS_OF_TEN = new double[23];
+
+    static
+    {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++)
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+    }
+
+    private ByteBuffer buffer;
+    private int numRows;
+    private String[] columnNames;
+    private Map<String, Integer> columnIndex = new HashMap<String, Integer>();
+
+    /** for each column, its position in intColumns, featureNames or stringStart */
+    private int[] slot;
+    private char[] kind;
+
+    private int[][] intColumns;
+    private int[][] stringStart;
+    private int[][] stringEnd;
+    private String[] featureNames;
+    private float[] features;
+
+    /** Parse position, only used while the table is being built */
+    private int pos;
+
+    private ComponentCSV()
+    {
+    }
+
+    /**
+     * Reads a CSV file by memory mapping it
+     *
+     * @param f the file to read
+     * @return the parsed table
+     * @throws IOException if the file cannot be read or is not a well formed CSV file
+     */
+    public static ComponentCSV read(File f)
+            throws IOException
+    {
+        FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ);
+        try
+        {
+            return parse(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+        finally
+        {
+            channel.close();
+        }
+    }
+
+    /**
+     * Parses CSV data held in a buffer. The buffer is retained to decode string fields on
+     * demand and must not be modified afterwards.
+     *
+     * @param buffer the data, from position 0 to the buffer's limit
+     * @return the parsed table
+     * @throws IOException if the data is not a well formed CSV file
+     */
+    public static ComponentCSV parse(ByteBuffer buffer)
+            throws IOException
+    {
+        ComponentCSV table = new ComponentCSV();
+        table.buffer = buffer;
+        table.parse();
+        return table;
+    }
+
+    private void parse()
+            throws IOException
+    {
+        int limit = buffer.limit();
+        pos = 0;
+
+        // Header
+        List<String> names = new ArrayList<String>();
+        while (pos < limit && !atLineEnd())
+        {
+            int start = pos;
+            int end = skipField();
+            names.add(decode(start, end));
+            if (pos < limit && buffer.get(pos) == ',')
+                pos++;
+        }
+        skipLineEnd();
+        columnNames = names.toArray(new String[names.size()]);
+
+        slot = new int[columnNames.length];
+        kind = new char[columnNames.length];
+        List<String> featureList = new ArrayList<String>();
+        int ints = 0;
+        int strings = 0;
+        for (int c = 0; c < columnNames.length; c++)
+        {
+            columnIndex.put(columnNames[c], c);
+            if (Arrays.asList(STRING_COLUMNS).contains(columnNames[c]))
+            {
+                kind[c] = 's';
+                slot[c] = strings++;
+            }
+            else if (Arrays.asList(INT_COLUMNS).contains(columnNames[c]))
+            {
+                kind[c] = 'i';
+                slot[c] = ints++;
+            }
+            else
+            {
+                kind[c] = 'f';
+                slot[c] = featureList.size();
+                featureList.add(columnNames[c]);
+            }
+        }
+        featureNames = featureList.toArray(new String[featureList.size()]);
+
+        // Count the data lines so that every column is allocated exactly once
+        int dataStart = pos;
+        numRows = 0;
+        boolean lineHasData = false;
+        boolean inQuotes = false;
+        for (int i = dataStart; i < limit; i++)
+        {
+            byte b = buffer.get(i);
+            if (b == '"')
+                inQuotes = !inQuotes;
+            if (inQuotes)
+                lineHasData = true;
+            else if (b == '\n')
+            {
+                if (lineHasData)
+                    numRows++;
+                lineHasData = false;
+            }
+            else if (b != '\r')
+                lineHasData = true;
+        }
+        if (lineHasData)
+            numRows++;
+
+        intColumns = new int[ints][numRows];
+        stringStart = new int[strings][numRows];
+        stringEnd = new int[strings][numRows];
+        features = new float[numRows * featureNames.length];
+
+        int row = 0;
+        while (pos < limit && row < numRows)
+        {
+            if (atLineEnd())
+            {
+                skipLineEnd();
+                continue;
+            }
+            for (int c = 0; c < columnNames.length; c++)
+            {
+                if (c > 0)
+                {
+                    if (pos >= limit || buffer.get(pos) != ',')
+                        throw new IOException("Line " + (row + 2) + " has " + c + " fields but the header names "
+                                              + columnNames.length);
+                    pos++;
+                }
+                switch (kind[c])
+                {
+                    case 's':
+                        stringStart[slot[c]][row] = pos;
+                        stringEnd[slot[c]][row] = skipField();
+                        break;
+                    case 'i':
+                        intColumns[slot[c]][row] = (int) parseNumber(row);
+                        break;
+                    default:
+                        features[row * featureNames.length + slot[c]] = (float) parseNumber(row);
+                }
+            }
+            if (!atLineEnd())
+                throw new IOException("Line " + (row + 2) + " has more fields than the header names");
+            skipLineEnd();
+            row++;
+        }
+    }
+
+    private boolean atLineEnd()
+    {
+        if (pos >= buffer.limit())
+            return true;
+        byte b = buffer.get(pos);
+        return b == '\n' || b == '\r';
+    }
+
+    private void skipLineEnd()
+    {
+        while (pos < buffer.limit() && (buffer.get(pos) == '\n' || buffer.get(pos) == '\r'))
+            pos++;
+    }
+
+    /**
+     * Moves past a (possibly quoted) field, leaving pos on the following separator
+     *
+     * @return the end of the field
+     */
+    private int skipField()
+    {
+        int limit = buffer.limit();
+        if (pos < limit && buffer.get(pos) == '"')
+        {
+            pos++;
+            while (pos < limit)
+            {
+                if (buffer.get(pos) == '"')
+                {
+                    if (pos + 1 < limit && buffer.get(pos + 1) == '"')
+                        pos += 2;
+                    else
+                        break;
+                }
+                else
+                    pos++;
+            }
+            pos++;
+            return pos;
+        }
+        while (pos < limit && buffer.get(pos) != ',' && buffer.get(pos) != '\n' && buffer.get(pos) != '\r')
+            pos++;
+        return pos;
+    }
+
+    /**
+     * Parses a decimal number, possibly quoted and in scientific notation, leaving pos on
+     * the following separator. An empty field is read as 0.
+     */
+    private double parseNumber(int row)
+            throws IOException
+    {
+        int start = pos;
+        int limit = buffer.limit();
+        boolean quoted = pos < limit && buffer.get(pos) == '"';
+        if (quoted)
+            pos++;
+
+        boolean negative = false;
+        if (pos < limit && (buffer.get(pos) == '-' || buffer.get(pos) == '+'))
+            negative = buffer.get(pos++) == '-';
+
+        long mantissa = 0;
+        int exponent = 0;
+        int digits = 0;
+        boolean exact = true;
+        byte b = 0;
+        while (pos < limit && (b = buffer.get(pos)) >= '0' && b <= '9')
+        {
+            if (mantissa < Long.MAX_VALUE / 10 - 10)
+                mantissa = mantissa * 10 + (b - '0');
+            else
+                exponent++;
+            digits++;
+            pos++;
+        }
+        if (pos < limit && b == '.')
+        {
+            pos++;
+            while (pos < limit && (b = buffer.get(pos)) >= '0' && b <= '9')
+            {
+                if (mantissa < Long.MAX_VALUE / 10 - 10)
+                {
+                    mantissa = mantissa * 10 + (b - '0');
+                    exponent--;
+                }
+                digits++;
+                pos++;
+            }
+        }
+        if (digits > 0 && pos < limit && (b == 'e' || b == 'E'))
+        {
+            pos++;
+            boolean negativeExponent = false;
+            if (pos < limit && (buffer.get(pos) == '-' || buffer.get(pos) == '+'))
+                negativeExponent = buffer.get(pos++) == '-';
+            int e = 0;
+            while (pos < limit && (b = buffer.get(pos)) >= '0' && b <= '9')
+            {
+                e = Math.min(e * 10 + (b - '0'), 10000);
+                pos++;
+            }
+            exponent += negativeExponent ? -e : e;
+        }
+        if (quoted && pos < limit && buffer.get(pos) == '"')
+            pos++;
+
+        if (pos < limit && buffer.get(pos) != ',' && buffer.get(pos) != '\n' && buffer.get(pos) != '\r')
+            exact = false;
+
+        if (!exact)
+        {
+            // Something other than a plain decimal number (nan, inf, ...): let the library
+            // deal with it
+            pos = start;
+            int end = skipField();
+            String text = decode(start, end).trim();
+            try
+            {
+                return Double.parseDouble(text);
+            }
+            catch (NumberFormatException nfe)
+            {
+                throw new IOException("Line " + (row + 2) + ": \"" + text + "\" is not a number");
+            }
+        }
+
+        double value;
+        if (exponent == 0)
+            value = mantissa;
+        else if (exponent > 0 && exponent < POWERS_OF_TEN.length)
+            value = mantissa * POWERS_OF_TEN[exponent];
+        else if (exponent < 0 && -exponent < POWERS_OF_TEN.length)
+            value = mantissa / POWERS_OF_TEN[-exponent];
+        else
+            value = mantissa * Math.pow(10, exponent);
+        return negative ? -value : value;
+    }
+
+    /**
+     * Turns the bytes of a field into a <code>String</code>, removing any quotes
+     */
+    private String decode(int start, int end)
+    {
+        if (end - start >= 2 && buffer.get(start) == '"' && buffer.get(end - 1) == '"')
+        {
+            start++;
+            end--;
+        }
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = buffer.get(start + i);
+        String s = new String(bytes, StandardCharsets.UTF_8);
+        return s.indexOf('"') < 0 ? s : s.replace("\"\"", "\"");
+    }
+
+    public int getNumRows()
+    {
+        return numRows;
+    }
+
+    public int getNumColumns()
+    {
+        return columnNames.length;
+    }
+
+    public String getColumnName(int column)
+    {
+        return columnNames[column];
+    }
+
+    /**
+     * @return the index of the named column, or -1 if there is no such column
+     */
+    public int getColumn(String name)
+    {
+        Integer c = columnIndex.get(name);
+        return c == null ? -1 : c;
+    }
+
+    private int column(String name, char expectedKind)
+    {
+        int c = getColumn(name);
+        if (c < 0 || kind[c] != expectedKind)
+            throw new IllegalArgumentException("No " + (expectedKind == 'i' ? "integer" : expectedKind == 's'
+                    ? "string" : "feature") + " column \"" + name + "\"");
+        return c;
+    }
+
+    /**
+     * Gives direct access to an integer column (one of <code>page</code>,
+     * <code>page_width</code>, <code>page_height</code>, <code>x</code>, <code>y</code>,
+     * <code>w</code>, <code>h</code>). The returned array must not be modified.
+     *
+     * @param name the name of the column
+     * @return the values of the column, indexed by row
+     */
+    public int[] getIntColumn(String name)
+    {
+        return intColumns[slot[column(name, 'i')]];
+    }
+
+    /**
+     * @return the value of a string column in the given row, without any quotes
+     */
+    public String getString(int row, String name)
+    {
+        int s = slot[column(name, 's')];
+        return decode(stringStart[s][row], stringEnd[s][row]);
+    }
+
+    public int getNumFeatures()
+    {
+        return featureNames.length;
+    }
+
+    public String getFeatureName(int feature)
+    {
+        return featureNames[feature];
+    }
+
+    /**
+     * Gives direct access to the feature matrix. Row <code>r</code> occupies positions
+     * <code>r * getNumFeatures()</code> to <code>(r + 1) * getNumFeatures() - 1</code>.
+     * The returned array must not be modified.
+     */
+    public float[] getFeatures()
+    {
+        return features;
+    }
+
+    public float getFeature(int row, int feature)
+    {
+        return features[row * featureNames.length + feature];
+    }
+}
@@ -0,0 +1,216 @@
+package layout.utils;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes JSON incrementally to a <code>Writer</code>, without building any document in
+ * memory
+ * <p/>
+ * The caller is responsible for producing a well formed sequence of calls: names may
+ * only be written directly inside objects and every value inside an object must be
+ * preceded by its name. Output is compact, so each top level value is written on a
+ * single line and a sequence of them separated by <code>newLine</code> forms a JSON
+ * Lines file.
+ */
+public class JsonWriter implements Closeable, Flushable
+{
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int MAX_DEPTH = 64;
+
+    private Writer out;
+
+    /** whether a value has already been written at each level of nesting */
+    private boolean[] hasElements = new boolean[MAX_DEPTH];
+    private int depth = 0;
+    private boolean afterName = false;
+
+    public JsonWriter(Writer out)
+    {
+        this.out = out;
+    }
+
+    /**
+     * Opens (creating or truncating) a file for writing through a buffered file channel
+     *
+     * @param f the file to write
+     * @return a <code>JsonWriter</code> on the file
+     * @throws IOException if the file cannot be opened
+     */
+    public static JsonWriter open(File f)
+            throws IOException
+    {
+        FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                               StandardOpenOption.TRUNCATE_EXISTING);
+        Writer writer = Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), BUFFER_SIZE);
+        return new JsonWriter(new BufferedWriter(writer, BUFFER_SIZE));
+    }
+
+    private void beforeValue()
+            throws IOException
+    {
+        if (afterName)
+        {
+            afterName = false;
+            return;
+        }
+        if (depth > 0 && hasElements[depth - 1])
+            out.write(',');
+        if (depth > 0)
+            hasElements[depth - 1] = true;
+    }
+
+    private void open(char c)
+            throws IOException
+    {
+        beforeValue();
+        if (depth == MAX_DEPTH)
+            throw new IllegalStateException("JSON nested more than " + MAX_DEPTH + " levels deep");
+        hasElements[depth++] = false;
+        out.write(c);
+    }
+
+    private void close(char c)
+            throws IOException
+    {
+        if (depth == 0)
+            throw new IllegalStateException("Nothing to close");
+        depth--;
+        out.write(c);
+    }
+
+    public void beginObject()
+            throws IOException
+    {
+        open('{');
+    }
+
+    public void endObject()
+            throws IOException
+    {
+        close('}');
+    }
+
+    public void beginArray()
+            throws IOException
+    {
+        open('[');
+    }
+
+    public void endArray()
+            throws IOException
+    {
+        close(']');
+    }
+
+    public void name(String name)
+            throws IOException
+    {
+        beforeValue();
+        writeString(name);
+        out.write(':');
+        afterName = true;
+    }
+
+    public void value(String value)
+            throws IOException
+    {
+        beforeValue();
+        if (value == null)
+            out.write("null");
+        else
+            writeString(value);
+    }
+
+    public void value(long value)
+            throws IOException
+    {
+        beforeValue();
+        out.write(Long.toString(value));
+    }
+
+    public void value(double value)
+            throws IOException
+    {
+        beforeValue();
+        if (Double.isNaN(value) || Double.isInfinite(value))
+            out.write("null");
+        else
+            out.write(Double.toString(value));
+    }
+
+    public void value(boolean value)
+            throws IOException
+    {
+        beforeValue();
+        out.write(value ? "true" : "false");
+    }
+
+    /**
+     * Ends a top level value, so that the next one starts on a new line
+     */
+    public void newLine()
+            throws IOException
+    {
+        if (depth != 0)
+            throw new IllegalStateException("newLine inside an unfinished value");
+        out.write('\n');
+    }
+
+    private void writeString(String s)
+            throws IOException
+    {
+        out.write('"');
+        int start = 0;
+        for (int i = 0; i < s.length(); i++)
+        {
+            char c = s.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\')
+                continue;
+            out.write(s, start, i - start);
+            switch (c)
+            {
+                case '"':
+                    out.write("\\\"");
+                    break;
+                case '\\':
+                    out.write("\\\\");
+                    break;
+                case '\n':
+                    out.write("\\n");
+                    break;
+                case '\r':
+                    out.write("\\r");
+                    break;
+                case '\t':
+                    out.write("\\t");
+                    break;
+                default:
+                    out.write(String.format("\\u%04x", (int) c));
+            }
+            start = i + 1;
+        }
+        out.write(s, start, s.length() - start);
+        out.write('"');
+    }
+
+    public void flush()
+            throws IOException
+    {
+        out.flush();
+    }
+
+    public void close()
+            throws IOException
+    {
+        out.close();
+    }
+}
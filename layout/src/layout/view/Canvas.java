@@ -26,6 +26,7 @@ class Canvas extends JPanel {
 	private Model model;
 	private View view;
 	private double scale;
+	private final TileCache tiles = new TileCache();
 
 	private CanvasMouseListener mouseListener;
 
@@ -67,7 +68,6 @@ class Canvas extends JPanel {
 		
 		// Using g or g2, draw on the full size "canvas":
 		Graphics2D g2 = (Graphics2D) g;
-		g2.scale(scale, scale);
 		
 		if (view.getIsImageDisplayEnabled()) {
 			//
@@ -80,13 +80,15 @@ class Canvas extends JPanel {
 			if (model.getImage() != null) {
 				BufferedImage image = model.getImage();
 
-				// Draw the display image on the full size canvas
-				g2.drawImage(image, 0, 0, null);
+				// Draw the tiles of the display image that are in view, already
+				// scaled
+				tiles.paint(g2, image, scale);
 
 			}
 
-			
+			g2.scale(scale, scale);
 		} else {
+			g2.scale(scale, scale);
 			g2.setColor(Color.WHITE);
 			Dimension dim = model.getDimensions();
 			g2.fillRect(0, 0, (int)dim.getWidth(), (int)dim.getHeight());
@@ -96,21 +98,25 @@ class Canvas extends JPanel {
 		List<Rectangle> rects = model.getRects();
 		
 		if (view.getIsBoxDisplayEnabled() && !components.isEmpty()) {
+			// Only the boxes in the area being repainted need to be drawn
+			Rectangle clip = g2.getClipBounds();
+			if (clip == null)
+				clip = new Rectangle(model.getDimensions());
+			
 			Color col = g2.getColor();
-			for (Component component : components) {
-				g2.setColor(Color.BLUE);
-				
+			g2.setColor(Color.BLUE);
+			for (Component component : model.getComponentsIn(clip)) {
 				g2.draw(component.getData());
 			}
 			
 			g2.setColor(Color.GREEN);
 			
-			for(Component c : model.getFinalBounds().get(Model.LineTypes.MATH))
+			for(Component c : model.getFinalBoundsIn(Model.LineTypes.MATH, clip))
 				g2.draw(c.getData());
 			
 			g2.setColor(Color.RED);
 			
-			for(Component c : model.getFinalBounds().get(Model.LineTypes.WORD))
+			for(Component c : model.getFinalBoundsIn(Model.LineTypes.WORD, clip))
 				g2.draw(c.getData());
 			
 			g2.setColor(col);
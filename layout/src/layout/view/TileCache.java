@@ -0,0 +1,108 @@
+package layout.view;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Pre-scaled tiles of a page image, so that painting the canvas only copies the tiles in
+ * view rather than scaling the whole page each time
+ * <p/>
+ * Tiles are <code>TILE_SIZE</code> canvas pixels square. They are kept for every zoom
+ * level the page has been shown at, in a least recently used cache of at most
+ * <code>MAX_TILES</code> tiles, and all dropped when the image changes.
+ */
+class TileCache {
+	static final int TILE_SIZE = 256;
+	private static final int MAX_TILES = 192;
+
+	private BufferedImage image;
+
+	private final LinkedHashMap<Tile, BufferedImage> tiles = new LinkedHashMap<Tile, BufferedImage>(MAX_TILES, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		protected boolean removeEldestEntry(Map.Entry<Tile, BufferedImage> eldest) {
+			return size() > MAX_TILES;
+		}
+	};
+
+	/**
+	 * Paints the part of an image that falls within the clip bounds of an unscaled
+	 * <code>Graphics2D</code>
+	 *
+	 * @param g     the graphics of the canvas, in canvas coordinates
+	 * @param image the page image
+	 * @param zoom  the scale of the canvas relative to the image
+	 */
+	void paint(Graphics2D g, BufferedImage image, double zoom) {
+		if (image != this.image) {
+			tiles.clear();
+			this.image = image;
+		}
+		int width = (int) Math.ceil(image.getWidth() * zoom);
+		int height = (int) Math.ceil(image.getHeight() * zoom);
+		Rectangle clip = g.getClipBounds();
+		if (clip == null)
+			clip = new Rectangle(0, 0, width, height);
+
+		int firstColumn = Math.max(0, clip.x / TILE_SIZE);
+		int firstRow = Math.max(0, clip.y / TILE_SIZE);
+		int lastColumn = Math.min((width - 1) / TILE_SIZE, (clip.x + clip.width - 1) / TILE_SIZE);
+		int lastRow = Math.min((height - 1) / TILE_SIZE, (clip.y + clip.height - 1) / TILE_SIZE);
+		for (int row = firstRow; row <= lastRow; row++)
+			for (int column = firstColumn; column <= lastColumn; column++)
+				g.drawImage(tile(column, row, zoom, width, height), column * TILE_SIZE, row * TILE_SIZE, null);
+	}
+
+	private BufferedImage tile(int column, int row, double zoom, int width, int height) {
+		Tile key = new Tile(zoom, column, row);
+		BufferedImage tile = tiles.get(key);
+		if (tile == null) {
+			int x = column * TILE_SIZE;
+			int y = row * TILE_SIZE;
+			tile = new BufferedImage(Math.min(TILE_SIZE, width - x), Math.min(TILE_SIZE, height - y),
+					image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+			Graphics2D g = tile.createGraphics();
+			g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			g.translate(-x, -y);
+			g.scale(zoom, zoom);
+			// Only hand over the part of the image under the tile (and a pixel around it for
+			// interpolation): the scaling loops do not all limit themselves to the clip
+			int sx = Math.max(0, (int) Math.floor(x / zoom) - 1);
+			int sy = Math.max(0, (int) Math.floor(y / zoom) - 1);
+			int sw = Math.min(image.getWidth(), (int) Math.ceil((x + tile.getWidth()) / zoom) + 1) - sx;
+			int sh = Math.min(image.getHeight(), (int) Math.ceil((y + tile.getHeight()) / zoom) + 1) - sy;
+			g.drawImage(image.getSubimage(sx, sy, sw, sh), sx, sy, null);
+			g.dispose();
+			tiles.put(key, tile);
+		}
+		return tile;
+	}
+
+	private static class Tile {
+		final double zoom;
+		final int column;
+		final int row;
+
+		Tile(double zoom, int column, int row) {
+			this.zoom = zoom;
+			this.column = column;
+			this.row = row;
+		}
+
+		public boolean equals(Object o) {
+			if (!(o instanceof Tile))
+				return false;
+			Tile t = (Tile) o;
+			return t.zoom == zoom && t.column == column && t.row == row;
+		}
+
+		public int hashCode() {
+			long bits = Double.doubleToLongBits(zoom);
+			return (int) (bits ^ (bits >>> 32)) * 31 * 31 + column * 31 + row;
+		}
+	}
+}
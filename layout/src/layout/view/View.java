@@ -24,6 +24,7 @@ import layout.controller.Controller;
 import layout.model.Component;
 import layout.model.Model;
 import layout.model.Model.LineTypes;
+import layout.utils.ImageFile;
 import layout.view.actions.ExitAction;
 import layout.view.actions.LongRunningAction;
 import layout.view.actions.OpenAction;
@@ -322,7 +323,8 @@ public class View extends JFrame
     	for(int i = 1; i < finalBounds.get(Model.LineTypes.MATH).size(); i++){
     		Rectangle r = finalBounds.get(Model.LineTypes.MATH).get(i).getData();
     		
-    		BufferedImage portion = model.getImage().getSubimage((int)r.getX(), (int)r.getY(), (int)r.getWidth(), (int)r.getHeight());
+    		// JPEG has no indexed colour, so bilevel pages are expanded to RGB first
+    		BufferedImage portion = ImageFile.convertToIntRGB(model.getImage().getSubimage((int)r.getX(), (int)r.getY(), (int)r.getWidth(), (int)r.getHeight()));
     		
     		File file = new File(directory + "/Math" + i + ".jpg");
     		try {
@@ -335,7 +337,8 @@ public class View extends JFrame
     	for(int i = 1; i < finalBounds.get(Model.LineTypes.WORD).size(); i++){
     		Rectangle r = finalBounds.get(Model.LineTypes.WORD).get(i).getData();
     		
-    		BufferedImage portion = model.getImage().getSubimage((int)r.getX(), (int)r.getY(), (int)r.getWidth(), (int)r.getHeight());
+    		// JPEG has no indexed colour, so bilevel pages are expanded to RGB first
+    		BufferedImage portion = ImageFile.convertToIntRGB(model.getImage().getSubimage((int)r.getX(), (int)r.getY(), (int)r.getWidth(), (int)r.getHeight()));
     		
     		File file = new File(directory + "/Word" + i + ".jpg");
     		try {